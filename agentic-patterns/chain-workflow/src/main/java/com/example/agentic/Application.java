@@ -15,7 +15,12 @@
 */
 package com.example.agentic;
 
+import java.nio.file.Path;
+
+import io.micrometer.observation.ObservationRegistry;
+
 import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
@@ -45,9 +50,40 @@ public class Application {
 			""";
 
 	@Bean
-	public CommandLineRunner commandLineRunner(ChatClient.Builder chatClientBuilder) {
+	public RateLimitingAdvisor rateLimitingAdvisor(
+			@Value("${agentic.rate-limit.requests-per-minute:50}") int requestsPerMinute,
+			@Value("${agentic.rate-limit.tokens-per-minute:40000}") int tokensPerMinute) {
+		return RateLimitingAdvisor.builder()
+				.requestsPerMinute(requestsPerMinute)
+				.tokensPerMinute(tokensPerMinute)
+				.build();
+	}
+
+	@Bean
+	public ChainStepCache chainStepCache(@Value("${chain.cache.max-memory-entries:256}") int maxMemoryEntries,
+			@Value("${chain.cache.directory:}") String directory) {
+		return new ChainStepCache(maxMemoryEntries, directory.isBlank() ? null : Path.of(directory));
+	}
+
+	@Bean(destroyMethod = "close")
+	public ExecutionJournal executionJournal(@Value("${chain.journal.file}") String file) {
+		return new ExecutionJournal(Path.of(file));
+	}
+
+	@Bean
+	public CommandLineRunner commandLineRunner(ChatClient.Builder chatClientBuilder,
+			RateLimitingAdvisor rateLimitingAdvisor, ChainStepCache chainStepCache,
+			ObservationRegistry observationRegistry, ExecutionJournal executionJournal,
+			@Value("${chain.journal.run-id:}") String runId,
+			@Value("${chain.trace.payload-log-sample-rate:0.0}") double payloadLogSampleRate) {
 		return args -> {
-			new ChainWorkflow(chatClientBuilder.build()).chain(report);
+			ChainTrace trace = new ChainWorkflow(chatClientBuilder.defaultAdvisors(rateLimitingAdvisor).build(),
+					ChainWorkflow.defaultSteps(), chainStepCache, observationRegistry, payloadLogSampleRate,
+					executionJournal)
+				.chainWithTrace(report, runId.isBlank() ? null : runId);
+
+			System.out.println(trace.output());
+			System.out.println(trace.summary());
 		};
 	}
 }
@@ -0,0 +1,58 @@
+/*
+* Copyright 2024 - 2024 the original author or authors.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* https://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.example.agentic;
+
+/**
+ * Thrown when the output of a gated chain step still fails its {@link StepGate}
+ * after all retries. The chain stops at that step and none of the following steps
+ * is executed.
+ *
+ * @author Christian Tzolov
+ * @see ChainStep#gated(ChainStep, StepGate, int)
+ */
+public class ChainGateException extends RuntimeException {
+
+	private final int stepIndex;
+
+	private final String output;
+
+	/**
+	 * @param stepIndex the zero-based index of the failing step
+	 * @param stepName  the name of the failing step
+	 * @param violation the description of the violation
+	 * @param output    the rejected output of the step
+	 */
+	public ChainGateException(int stepIndex, String stepName, String violation, String output) {
+		super(String.format("Step %s (%s) failed its gate: %s", stepIndex + 1, stepName, violation));
+		this.stepIndex = stepIndex;
+		this.output = output;
+	}
+
+	/**
+	 * @return the zero-based index of the failing step
+	 */
+	public int getStepIndex() {
+		return this.stepIndex;
+	}
+
+	/**
+	 * @return the rejected output of the step
+	 */
+	public String getOutput() {
+		return this.output;
+	}
+
+}
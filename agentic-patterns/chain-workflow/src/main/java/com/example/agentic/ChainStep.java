@@ -0,0 +1,127 @@
+/*
+* Copyright 2024 - 2024 the original author or authors.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* https://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.example.agentic;
+
+import java.util.function.Function;
+
+import org.springframework.util.Assert;
+
+/**
+ * A single step of a {@link ChainWorkflow}: either a system prompt executed by the
+ * LLM, or a local Java function for deterministic transformations that do not need
+ * a model round trip. Any step can be wrapped with a {@link StepGate} validating its
+ * output before the next step runs.
+ *
+ * @author Christian Tzolov
+ * @see ChainWorkflow
+ * @see LocalSteps
+ */
+public sealed interface ChainStep permits ChainStep.Prompt, ChainStep.Local, ChainStep.Gated {
+
+	/**
+	 * @return a short name of the step used in the workflow output
+	 */
+	String name();
+
+	/**
+	 * Creates a step executed by the LLM.
+	 *
+	 * @param name         a short name of the step
+	 * @param systemPrompt the system prompt applied to the previous step's output
+	 * @return the step
+	 */
+	static ChainStep prompt(String name, String systemPrompt) {
+		return new Prompt(name, systemPrompt);
+	}
+
+	/**
+	 * Creates a step executed locally.
+	 *
+	 * @param name     a short name of the step
+	 * @param function the transformation applied to the previous step's output
+	 * @return the step
+	 */
+	static ChainStep local(String name, Function<String, String> function) {
+		return new Local(name, function);
+	}
+
+	/**
+	 * Wraps a step with a gate validating its output. An LLM step whose output fails
+	 * the gate is called again, bypassing the step cache, up to {@code maxRetries}
+	 * times. Local steps are deterministic and are never retried.
+	 *
+	 * @param step       the step to validate
+	 * @param gate       the gate the step's output must pass
+	 * @param maxRetries the number of additional LLM calls on a failed gate
+	 * @return the gated step
+	 */
+	static ChainStep gated(ChainStep step, StepGate gate, int maxRetries) {
+		return new Gated(step, gate, maxRetries);
+	}
+
+	/**
+	 * Step calling the LLM with a system prompt and the previous step's output.
+	 *
+	 * @param name         a short name of the step
+	 * @param systemPrompt the system prompt of the step
+	 */
+	record Prompt(String name, String systemPrompt) implements ChainStep {
+
+		public Prompt {
+			Assert.hasText(name, "Name must not be empty");
+			Assert.hasText(systemPrompt, "System prompt must not be empty");
+		}
+
+	}
+
+	/**
+	 * Step transforming the previous step's output with a local function.
+	 *
+	 * @param name     a short name of the step
+	 * @param function the transformation of the step
+	 */
+	record Local(String name, Function<String, String> function) implements ChainStep {
+
+		public Local {
+			Assert.hasText(name, "Name must not be empty");
+			Assert.notNull(function, "Function must not be null");
+		}
+
+	}
+
+	/**
+	 * Step whose output must pass a gate before the chain continues.
+	 *
+	 * @param step       the validated step
+	 * @param gate       the gate the step's output must pass
+	 * @param maxRetries the number of additional LLM calls on a failed gate
+	 */
+	record Gated(ChainStep step, StepGate gate, int maxRetries) implements ChainStep {
+
+		public Gated {
+			Assert.notNull(step, "Step must not be null");
+			Assert.notNull(gate, "Gate must not be null");
+			Assert.isTrue(maxRetries >= 0, "Max retries must not be negative");
+		}
+
+		@Override
+		public String name() {
+			return step.name() + ", gated";
+		}
+
+	}
+
+}
@@ -0,0 +1,167 @@
+/*
+* Copyright 2024 - 2024 the original author or authors.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* https://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.example.agentic;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.util.Assert;
+
+/**
+ * Memoization cache for the steps of a {@link ChainWorkflow}.
+ *
+ * <p>
+ * A step's output is stored under a SHA-256 hash of the step's system prompt and the
+ * step's input. Because the input of a step is the output of the previous one, a
+ * rerun of the chain hits the cache for the longest prefix of unchanged steps and only
+ * calls the LLM from the first changed step on. Editing only the last prompt costs a
+ * single LLM call.
+ *
+ * <p>
+ * The cache has two tiers: a bounded in-memory LRU map and, optionally, a directory
+ * with one file per entry that survives restarts. Entries found on disk are promoted
+ * to the memory tier.
+ *
+ * @author Christian Tzolov
+ * @see ChainWorkflow
+ */
+public class ChainStepCache {
+
+	private final Map<String, String> memory;
+
+	private final Path directory;
+
+	/**
+	 * Creates an in-memory cache.
+	 *
+	 * @param maxMemoryEntries the maximum number of entries kept in memory
+	 */
+	public ChainStepCache(int maxMemoryEntries) {
+		this(maxMemoryEntries, null);
+	}
+
+	/**
+	 * Creates a cache with a memory tier and a disk tier.
+	 *
+	 * @param maxMemoryEntries the maximum number of entries kept in memory
+	 * @param directory        the directory storing the disk tier, created if missing,
+	 *                         or {@code null} for an in-memory cache
+	 */
+	public ChainStepCache(int maxMemoryEntries, Path directory) {
+		Assert.isTrue(maxMemoryEntries > 0, "Maximum memory entries must be greater than 0");
+
+		this.memory = new LinkedHashMap<>(16, 0.75f, true) {
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+				return size() > maxMemoryEntries;
+			}
+
+		};
+		this.directory = directory;
+		if (directory != null) {
+			try {
+				Files.createDirectories(directory);
+			} catch (IOException e) {
+				throw new UncheckedIOException("Failed to create cache directory " + directory, e);
+			}
+		}
+	}
+
+	/**
+	 * Computes the cache key of a step.
+	 *
+	 * @param systemPrompt the system prompt of the step
+	 * @param input        the input of the step
+	 * @return the hex encoded SHA-256 hash of the prompt and the input
+	 */
+	public static String key(String systemPrompt, String input) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(systemPrompt.getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+			digest.update(input.getBytes(StandardCharsets.UTF_8));
+			return HexFormat.of().formatHex(digest.digest());
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available", e);
+		}
+	}
+
+	/**
+	 * @param key the step key
+	 * @return the cached output of the step, or {@code null} if the step is not cached
+	 */
+	public String get(String key) {
+		synchronized (this.memory) {
+			String output = this.memory.get(key);
+			if (output != null) {
+				return output;
+			}
+		}
+		if (this.directory == null) {
+			return null;
+		}
+		Path file = this.directory.resolve(key);
+		if (!Files.exists(file)) {
+			return null;
+		}
+		try {
+			String output = Files.readString(file, StandardCharsets.UTF_8);
+			synchronized (this.memory) {
+				this.memory.put(key, output);
+			}
+			return output;
+		} catch (IOException e) {
+			// An unreadable entry is a cache miss.
+			return null;
+		}
+	}
+
+	/**
+	 * Stores the output of a step in both tiers.
+	 *
+	 * @param key    the step key
+	 * @param output the output of the step
+	 */
+	public void put(String key, String output) {
+		Assert.notNull(output, "Output must not be null");
+		synchronized (this.memory) {
+			this.memory.put(key, output);
+		}
+		if (this.directory == null) {
+			return;
+		}
+		try {
+			// Write to a temporary file first so readers never see a partial entry.
+			Path temp = Files.createTempFile(this.directory, key, ".tmp");
+			Files.writeString(temp, output, StandardCharsets.UTF_8);
+			Files.move(temp, this.directory.resolve(key), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to write cache entry " + key, e);
+		}
+	}
+
+}
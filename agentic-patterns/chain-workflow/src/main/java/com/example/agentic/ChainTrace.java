@@ -0,0 +1,91 @@
+/*
+* Copyright 2024 - 2024 the original author or authors.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* https://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.example.agentic;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Trace of a single {@link ChainWorkflow} invocation: the final output and, for every
+ * step, its latency, token usage and payload sizes.
+ *
+ * @param output  the output of the last step
+ * @param steps   the traces of the executed steps, in order
+ * @param latency the wall-clock time of the whole chain
+ * @author Christian Tzolov
+ * @see ChainWorkflow#chainWithTrace(String)
+ */
+public record ChainTrace(String output, List<StepTrace> steps, Duration latency) {
+
+	public ChainTrace {
+		steps = List.copyOf(steps);
+	}
+
+	/**
+	 * Trace of a single step. Local and cached steps report zero tokens.
+	 *
+	 * @param index            the zero-based index of the step
+	 * @param name             the name of the step
+	 * @param cached           whether the output was served by the step cache
+	 * @param latency          the wall-clock time of the step, including retries
+	 * @param promptTokens     the prompt tokens reported by the model
+	 * @param completionTokens the completion tokens reported by the model
+	 * @param inputChars       the length of the step's input
+	 * @param outputChars      the length of the step's output
+	 */
+	public record StepTrace(int index, String name, boolean cached, Duration latency, int promptTokens,
+			int completionTokens, int inputChars, int outputChars) {
+	}
+
+	/**
+	 * @return the prompt tokens of all steps
+	 */
+	public int promptTokens() {
+		return steps.stream().mapToInt(StepTrace::promptTokens).sum();
+	}
+
+	/**
+	 * @return the completion tokens of all steps
+	 */
+	public int completionTokens() {
+		return steps.stream().mapToInt(StepTrace::completionTokens).sum();
+	}
+
+	/**
+	 * @return the step with the highest latency, or empty for a chain without steps
+	 */
+	public Optional<StepTrace> slowestStep() {
+		return steps.stream().max(Comparator.comparing(StepTrace::latency));
+	}
+
+	/**
+	 * @return one line per step with its latency, tokens and payload sizes
+	 */
+	public String summary() {
+		StringBuilder summary = new StringBuilder();
+		for (StepTrace step : steps) {
+			summary.append(String.format("STEP %s (%s%s): %s ms, %s prompt / %s completion tokens, %s -> %s chars%n",
+					step.index() + 1, step.name(), step.cached() ? ", cached" : "", step.latency().toMillis(),
+					step.promptTokens(), step.completionTokens(), step.inputChars(), step.outputChars()));
+		}
+		summary.append(String.format("TOTAL: %s ms, %s prompt / %s completion tokens", latency.toMillis(),
+				promptTokens(), completionTokens()));
+		return summary.toString();
+	}
+
+}
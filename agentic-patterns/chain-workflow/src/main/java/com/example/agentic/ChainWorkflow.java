@@ -1,6 +1,28 @@
 package com.example.agentic;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
+
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.util.Assert;
 
 /**
  * Implements the Prompt Chaining workflow pattern for decomposing complex tasks
@@ -17,6 +39,28 @@ import org.springframework.ai.chat.client.ChatClient;
  * <li>Format as markdown table</li>
  * </ol>
  * 
+ * <p>
+ * Steps are either LLM prompts or local Java functions (see {@link ChainStep}).
+ * The default chain runs the deterministic percentage conversion and sorting
+ * steps locally with {@link LocalSteps}, so only extraction and formatting cost
+ * an LLM call.
+ * 
+ * <p>
+ * Steps wrapped with a {@link StepGate} have their output validated locally
+ * before the next step runs. A failing LLM step is retried on its own, and if it
+ * keeps failing the chain stops early with a {@link ChainGateException}.
+ * 
+ * <p>
+ * Every invocation produces a {@link ChainTrace} with the latency, token usage
+ * and payload sizes of each step. Steps are published as {@code chain.step}
+ * Micrometer observations nested in a {@code chain.workflow} observation, and
+ * intermediate payloads are only logged for a sampled fraction of the chains.
+ * 
+ * <p>
+ * With an {@link ExecutionJournal}, a chain invoked with a run id records the
+ * output of every step, so an interrupted run restarted with the same run id
+ * replays its completed steps and resumes at the first missing one.
+ * 
  * <p/>
  * When to use this workflow: This workflow is ideal for situations where the
  * task can be easily and cleanly decomposed into fixed subtasks. The main goal
@@ -32,6 +76,20 @@ import org.springframework.ai.chat.client.ChatClient;
  */
 public class ChainWorkflow {
 
+	private static final Logger logger = LoggerFactory.getLogger(ChainWorkflow.class);
+
+	/**
+	 * Runs the stage workers of all {@link #chainAll(List, int, int)} invocations. The
+	 * pool is unbounded because stage workers block on their queues, so a bounded pool
+	 * shared by concurrent pipelines could starve one of them. Idle threads are
+	 * reclaimed after a minute.
+	 */
+	private static final ExecutorService PIPELINE_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "chain-pipeline");
+		thread.setDaemon(true);
+		return thread;
+	});
+
 	/**
 	 * Array of system prompts that define the transformation steps in the chain.
 	 * Each prompt acts as a gate that validates and transforms the output before
@@ -69,18 +127,39 @@ public class ChainWorkflow {
 					| Customer Satisfaction | 92% | """
 	};
 
+	/**
+	 * Default chain mixing LLM steps with local steps: the percentage conversion
+	 * and sorting steps are pure data transformations and run locally. The
+	 * extraction is gated, so a reply without any 'value: metric' line is retried
+	 * once and otherwise stops the chain before the formatting call.
+	 */
+	private static final List<ChainStep> DEFAULT_STEPS = List.of(
+			ChainStep.gated(ChainStep.prompt("extract", DEFAULT_SYSTEM_PROMPTS[0]),
+					StepGate.of(text -> !LocalSteps.parse(text).isEmpty(), "No 'value: metric' lines found"), 1),
+			ChainStep.local("percentages", LocalSteps::toPercentages),
+			ChainStep.local("sort", LocalSteps::sortDescending),
+			ChainStep.prompt("table", DEFAULT_SYSTEM_PROMPTS[3]));
+
 	private final ChatClient chatClient;
 
-	private final String[] systemPrompts;
+	private final List<ChainStep> steps;
+
+	private final ChainStepCache cache;
+
+	private final ObservationRegistry observationRegistry;
+
+	private final double payloadLogSampleRate;
+
+	private final ExecutionJournal journal;
 
 	/**
 	 * Constructs a new instance of the Prompt Chaining workflow with the specified
-	 * chat client and default system prompts.
+	 * chat client and the default hybrid steps.
 	 * 
 	 * @param chatClient the Spring AI chat client used to make LLM calls
 	 */
 	public ChainWorkflow(ChatClient chatClient) {
-		this(chatClient, DEFAULT_SYSTEM_PROMPTS);
+		this(chatClient, DEFAULT_STEPS, null);
 	}
 
 	/**
@@ -92,40 +171,542 @@ public class ChainWorkflow {
 	 *                      in the chain
 	 */
 	public ChainWorkflow(ChatClient chatClient, String[] systemPrompts) {
+		this(chatClient, systemPrompts, null);
+	}
+
+	/**
+	 * Constructs a new instance of the Prompt Chaining workflow that memoizes the
+	 * output of every step. The steps are named {@code prompt 1}, {@code prompt 2}
+	 * and so on.
+	 * 
+	 * @param chatClient    the Spring AI chat client used to make LLM calls
+	 * @param systemPrompts the system prompts that define the transformation steps
+	 *                      in the chain
+	 * @param cache         the step cache, or {@code null} to call the LLM for every
+	 *                      step
+	 */
+	public ChainWorkflow(ChatClient chatClient, String[] systemPrompts, ChainStepCache cache) {
+		this(chatClient, IntStream.range(0, systemPrompts.length)
+				.mapToObj(i -> ChainStep.prompt("prompt " + (i + 1), systemPrompts[i]))
+				.toList(), cache);
+	}
+
+	/**
+	 * Constructs a new instance of the Prompt Chaining workflow with a mixed list
+	 * of LLM and local steps.
+	 * 
+	 * @param chatClient the Spring AI chat client used to make LLM calls
+	 * @param steps      the steps of the chain, in order
+	 * @param cache      the cache for the LLM steps, or {@code null} to call the
+	 *                   LLM for every step
+	 */
+	public ChainWorkflow(ChatClient chatClient, List<ChainStep> steps, ChainStepCache cache) {
+		this(chatClient, steps, cache, ObservationRegistry.NOOP, 0.0);
+	}
+
+	/**
+	 * Constructs a new instance of the Prompt Chaining workflow that publishes its
+	 * steps as observations.
+	 * 
+	 * @param chatClient           the Spring AI chat client used to make LLM calls
+	 * @param steps                the steps of the chain, in order
+	 * @param cache                the cache for the LLM steps, or {@code null} to
+	 *                             call the LLM for every step
+	 * @param observationRegistry  the registry receiving the chain and step
+	 *                             observations
+	 * @param payloadLogSampleRate the fraction of chains, between 0 and 1, whose
+	 *                             intermediate payloads are logged
+	 */
+	public ChainWorkflow(ChatClient chatClient, List<ChainStep> steps, ChainStepCache cache,
+			ObservationRegistry observationRegistry, double payloadLogSampleRate) {
+		this(chatClient, steps, cache, observationRegistry, payloadLogSampleRate, null);
+	}
+
+	/**
+	 * Constructs a new instance of the Prompt Chaining workflow whose runs can be
+	 * resumed from an execution journal.
+	 * 
+	 * @param chatClient           the Spring AI chat client used to make LLM calls
+	 * @param steps                the steps of the chain, in order
+	 * @param cache                the cache for the LLM steps, or {@code null} to
+	 *                             call the LLM for every step
+	 * @param observationRegistry  the registry receiving the chain and step
+	 *                             observations
+	 * @param payloadLogSampleRate the fraction of chains, between 0 and 1, whose
+	 *                             intermediate payloads are logged
+	 * @param journal              the journal recording the steps of the chains
+	 *                             invoked with a run id, or {@code null}
+	 */
+	public ChainWorkflow(ChatClient chatClient, List<ChainStep> steps, ChainStepCache cache,
+			ObservationRegistry observationRegistry, double payloadLogSampleRate, ExecutionJournal journal) {
+		Assert.notNull(chatClient, "ChatClient must not be null");
+		Assert.noNullElements(steps, "Steps must not contain null elements");
+		Assert.notNull(observationRegistry, "ObservationRegistry must not be null");
+		Assert.isTrue(payloadLogSampleRate >= 0 && payloadLogSampleRate <= 1,
+				"Payload log sample rate must be between 0 and 1");
+
 		this.chatClient = chatClient;
-		this.systemPrompts = systemPrompts;
+		this.steps = List.copyOf(steps);
+		this.cache = cache;
+		this.observationRegistry = observationRegistry;
+		this.payloadLogSampleRate = payloadLogSampleRate;
+		this.journal = journal;
+	}
+
+	/**
+	 * @return the default system prompts of the four-step chain, all executed by
+	 *         the LLM
+	 */
+	public static String[] defaultSystemPrompts() {
+		return DEFAULT_SYSTEM_PROMPTS.clone();
+	}
+
+	/**
+	 * @return the default hybrid steps, with local percentage conversion and sorting
+	 */
+	public static List<ChainStep> defaultSteps() {
+		return DEFAULT_STEPS;
 	}
 
 	/**
 	 * Executes the prompt chaining workflow by processing the input text through
-	 * a series of LLM calls, where each call's output becomes the input for the
-	 * next step.
+	 * a series of steps, where each step's output becomes the input for the next
+	 * step.
 	 * 
 	 * <p>
-	 * The method prints the intermediate results after each step to show the
-	 * progression of transformations through the chain.
+	 * With a step cache, steps whose prompt and input are unchanged reuse their
+	 * cached output instead of calling the LLM.
 	 *
-	 * @param chatClient the Spring AI chat client used to make LLM calls
-	 * @param userInput     the input text containing numerical data to be processed
+	 * @param userInput the input text containing numerical data to be processed
 	 * @return the final output after all steps have been executed
+	 * @throws ChainGateException if the output of a gated step fails its gate after
+	 *                            all retries
+	 * @see #chainWithTrace(String)
 	 */
 	public String chain(String userInput) {
+		return chainWithTrace(userInput).output();
+	}
+
+	/**
+	 * Executes the prompt chaining workflow as a resumable run. Steps recorded in
+	 * the execution journal under the run id with an unchanged input are replayed
+	 * instead of executed.
+	 *
+	 * @param userInput the input text containing numerical data to be processed
+	 * @param runId     the id of the run in the execution journal
+	 * @return the final output after all steps have been executed
+	 * @throws ChainGateException if the output of a gated step fails its gate after
+	 *                            all retries
+	 * @see #chainWithTrace(String, String)
+	 */
+	public String chain(String userInput, String runId) {
+		return chainWithTrace(userInput, runId).output();
+	}
+
+	/**
+	 * Executes the prompt chaining workflow and records the latency, token usage
+	 * and payload sizes of every step.
+	 * 
+	 * <p>
+	 * The chain and its steps are published as observations. The intermediate
+	 * results of the chain are logged only if the chain is sampled by the payload
+	 * log sample rate.
+	 *
+	 * @param userInput the input text containing numerical data to be processed
+	 * @return the trace of the chain, including the final output
+	 * @throws ChainGateException if the output of a gated step fails its gate after
+	 *                            all retries
+	 */
+	public ChainTrace chainWithTrace(String userInput) {
+		return chainWithTrace(userInput, null);
+	}
+
+	/**
+	 * Executes the prompt chaining workflow as a resumable run and records the
+	 * latency, token usage and payload sizes of every step.
+	 * 
+	 * <p>
+	 * The output of every step is recorded in the execution journal under the run
+	 * id. Steps already recorded with an unchanged input are replayed from the
+	 * journal and traced as cached, so a restarted run resumes at the first missing
+	 * step.
+	 *
+	 * @param userInput the input text containing numerical data to be processed
+	 * @param runId     the id of the run in the execution journal, or {@code null}
+	 *                  to run without the journal
+	 * @return the trace of the chain, including the final output
+	 * @throws ChainGateException if the output of a gated step fails its gate after
+	 *                            all retries
+	 */
+	public ChainTrace chainWithTrace(String userInput, String runId) {
+		Assert.isTrue(runId == null || journal != null, "A run id requires an execution journal");
 
-		int step = 0;
+		boolean logPayloads = payloadLogSampleRate > 0
+				&& ThreadLocalRandom.current().nextDouble() < payloadLogSampleRate;
+		if (logPayloads) {
+			logger.info("STEP 0:\n {}", userInput);
+		}
+
+		Observation chainObservation = Observation.createNotStarted("chain.workflow", observationRegistry)
+				.lowCardinalityKeyValue("chain.steps", String.valueOf(steps.size()))
+				.start();
+		long startNanos = System.nanoTime();
+		List<ChainTrace.StepTrace> stepTraces = new ArrayList<>();
 		String response = userInput;
-		System.out.println(String.format("\nSTEP %s:\n %s", step++, response));
 
-		for (String prompt : systemPrompts) {
+		try {
+			for (int i = 0; i < steps.size(); i++) {
+
+				ChainStep chainStep = steps.get(i);
+				long stepStartNanos = System.nanoTime();
+				StepOutput output = (runId != null) ? journaledStep(runId, i, chainStep, response, chainObservation)
+						: observeStep(i, chainStep, response, chainObservation);
+				ChainTrace.StepTrace stepTrace = new ChainTrace.StepTrace(i, chainStep.name(), output.cached(),
+						Duration.ofNanos(System.nanoTime() - stepStartNanos), output.promptTokens(),
+						output.completionTokens(), length(response), length(output.text()));
+				stepTraces.add(stepTrace);
+				response = output.text();
+
+				logger.debug("STEP {} ({}) took {} ms with {} prompt and {} completion tokens", i + 1,
+						chainStep.name(), stepTrace.latency().toMillis(), stepTrace.promptTokens(),
+						stepTrace.completionTokens());
+				if (logPayloads) {
+					logger.info("STEP {} ({}):\n {}", i + 1, output.cached() ? chainStep.name() + ", cached"
+							: chainStep.name(), response);
+				}
+			}
+		} catch (RuntimeException e) {
+			chainObservation.error(e);
+			throw e;
+		} finally {
+			chainObservation.stop();
+		}
+
+		return new ChainTrace(response, stepTraces, Duration.ofNanos(System.nanoTime() - startNanos));
+	}
+
+	/**
+	 * Executes the chain for many inputs as a pipeline, where every step is a stage
+	 * with its own workers and a bounded queue in front of it. While one
+	 * document is in step 3, the next ones can already be in steps 2 and 1, so the
+	 * batch runs at roughly the throughput of the slowest stage instead of the sum
+	 * of all calls.
+	 * 
+	 * <p>
+	 * A full queue blocks the stage feeding it, which propagates backpressure up to
+	 * the caller submitting the inputs. Intermediate results are not logged, but
+	 * every step is still published as an observation. An
+	 * input failing a gated step leaves the pipeline at that step and its result
+	 * is {@code null}. If a step fails for any input in another way, the remaining
+	 * inputs are still drained and the first failure is thrown once the pipeline
+	 * has stopped. If the caller is interrupted, the remaining inputs are skipped,
+	 * the calls already running complete, and an {@link IllegalStateException} is
+	 * thrown with the interrupt status restored.
+	 *
+	 * @param userInputs      the inputs to process through the chain
+	 * @param workersPerStage the number of concurrent LLM calls of every stage
+	 * @param queueCapacity   the capacity of the queue in front of every stage
+	 * @return the final outputs in the same order as the inputs, {@code null} for
+	 *         inputs rejected by a gate
+	 * @throws RuntimeException if a step fails for any input
+	 */
+	public List<String> chainAll(List<String> userInputs, int workersPerStage, int queueCapacity) {
+		Assert.notNull(userInputs, "User inputs must not be null");
+		Assert.isTrue(workersPerStage > 0, "Workers per stage must be greater than 0");
+		Assert.isTrue(queueCapacity > 0, "Queue capacity must be greater than 0");
+
+		if (steps.isEmpty()) {
+			return userInputs;
+		}
+
+		String[] results = new String[userInputs.size()];
+
+		List<BlockingQueue<Document>> queues = new ArrayList<>();
+		for (int i = 0; i < steps.size(); i++) {
+			queues.add(new ArrayBlockingQueue<>(queueCapacity));
+		}
+
+		AtomicReference<RuntimeException> failure = new AtomicReference<>();
+		CountDownLatch finishedWorkers = new CountDownLatch(steps.size() * workersPerStage);
+
+		for (int stage = 0; stage < steps.size(); stage++) {
+			int stepIndex = stage;
+			ChainStep chainStep = steps.get(stage);
+			BlockingQueue<Document> in = queues.get(stage);
+			BlockingQueue<Document> out = (stage + 1 < queues.size()) ? queues.get(stage + 1) : null;
+			AtomicInteger runningWorkers = new AtomicInteger(workersPerStage);
+
+			for (int worker = 0; worker < workersPerStage; worker++) {
+				PIPELINE_EXECUTOR.execute(() -> {
+					try {
+						Document document;
+						while ((document = uninterruptibly(in::take)) != Document.END) {
+							if (Thread.currentThread().isInterrupted()) {
+								failure.compareAndSet(null,
+										new IllegalStateException("Interrupted while running the chain pipeline"));
+							}
+							if (failure.get() != null) {
+								continue;
+							}
+							try {
+								String output = observeStep(stepIndex, chainStep, document.text(), null).text();
+								if (out != null) {
+									Document next = new Document(document.index(), output);
+									uninterruptibly(() -> {
+										out.put(next);
+										return null;
+									});
+								} else {
+									results[document.index()] = output;
+								}
+							} catch (ChainGateException e) {
+								// The document stops here, the others continue.
+							} catch (RuntimeException e) {
+								failure.compareAndSet(null, e);
+							}
+						}
+					} finally {
+						// The last worker of a stage to finish ends the next stage.
+						if (runningWorkers.decrementAndGet() == 0 && out != null) {
+							endStage(out, workersPerStage);
+						}
+						finishedWorkers.countDown();
+					}
+				});
+			}
+		}
 
-			// 1. Compose the input using the response from the previous step.
-			String input = String.format("{%s}\n {%s}", prompt, response);
+		boolean interrupted = false;
+		try {
+			for (int i = 0; i < userInputs.size(); i++) {
+				queues.get(0).put(new Document(i, userInputs.get(i)));
+			}
+		} catch (InterruptedException e) {
+			interrupted = true;
+			failure.compareAndSet(null, new IllegalStateException("Interrupted while running the chain pipeline", e));
+		}
+		endStage(queues.get(0), workersPerStage);
+		uninterruptibly(() -> {
+			finishedWorkers.await();
+			return null;
+		});
 
-			// 2. Call the chat client with the new input and get the new response.
-			response = chatClient.prompt(input).call().content();
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		if (failure.get() != null) {
+			throw failure.get();
+		}
+		return Arrays.asList(results);
+	}
 
-			System.out.println(String.format("\nSTEP %s:\n %s", step++, response));
+	private static void endStage(BlockingQueue<Document> queue, int workers) {
+		for (int i = 0; i < workers; i++) {
+			uninterruptibly(() -> {
+				queue.put(Document.END);
+				return null;
+			});
 		}
+	}
+
+	/**
+	 * Runs a blocking queue or latch operation to completion even if the thread is
+	 * interrupted, so every stage is always drained and ended, and restores the
+	 * interrupt status afterwards.
+	 */
+	private static <T> T uninterruptibly(Blocking<T> operation) {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return operation.run();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	@FunctionalInterface
+	private interface Blocking<T> {
+
+		T run() throws InterruptedException;
+
+	}
+
+	/**
+	 * Runs a single step within a {@code chain.step} observation.
+	 */
+	private StepOutput observeStep(int stepIndex, ChainStep chainStep, String previousResponse, Observation parent) {
+		Observation observation = Observation.createNotStarted("chain.step", observationRegistry)
+				.parentObservation(parent)
+				.lowCardinalityKeyValue("chain.step.index", String.valueOf(stepIndex + 1))
+				.lowCardinalityKeyValue("chain.step.name", chainStep.name())
+				.highCardinalityKeyValue("chain.step.input.chars", String.valueOf(length(previousResponse)))
+				.start();
+		try {
+			StepOutput output = runStep(stepIndex, chainStep, previousResponse);
+			observation.lowCardinalityKeyValue("chain.step.cached", String.valueOf(output.cached()))
+					.highCardinalityKeyValue("chain.step.output.chars", String.valueOf(length(output.text())))
+					.highCardinalityKeyValue("gen_ai.usage.input_tokens", String.valueOf(output.promptTokens()))
+					.highCardinalityKeyValue("gen_ai.usage.output_tokens", String.valueOf(output.completionTokens()));
+			return output;
+		} catch (RuntimeException e) {
+			observation.error(e);
+			throw e;
+		} finally {
+			observation.stop();
+		}
+	}
+
+	/**
+	 * Replays a step recorded in the journal, or runs it and records its output.
+	 */
+	private StepOutput journaledStep(String runId, int stepIndex, ChainStep chainStep, String previousResponse,
+			Observation parent) {
+		String journalStep = "step-" + (stepIndex + 1);
+		String journalInput = stepIdentity(chainStep) + '\0' + previousResponse;
+		String replayed = journal.replay(runId, journalStep, journalInput);
+		if (replayed != null) {
+			return new StepOutput(replayed, true, 0, 0);
+		}
+		StepOutput output = observeStep(stepIndex, chainStep, previousResponse, parent);
+		if (output.text() != null) {
+			journal.record(runId, journalStep, journalInput, output.text());
+		}
+		return output;
+	}
+
+	/**
+	 * @return what the output of a step depends on besides its input: the system
+	 *         prompt of LLM steps and the name of local steps
+	 */
+	private static String stepIdentity(ChainStep chainStep) {
+		if (chainStep instanceof ChainStep.Gated gated) {
+			return stepIdentity(gated.step());
+		}
+		return (chainStep instanceof ChainStep.Prompt promptStep) ? promptStep.systemPrompt() : chainStep.name();
+	}
+
+	/**
+	 * Runs a single step, reusing the cached output of LLM steps when available.
+	 */
+	private StepOutput runStep(int stepIndex, ChainStep chainStep, String previousResponse) {
+		if (chainStep instanceof ChainStep.Gated gated) {
+			return runGated(stepIndex, gated, previousResponse);
+		}
+		if (chainStep instanceof ChainStep.Local localStep) {
+			return new StepOutput(localStep.function().apply(previousResponse), false, 0, 0);
+		}
+		String prompt = ((ChainStep.Prompt) chainStep).systemPrompt();
+		String cached = cachedOutput(prompt, previousResponse);
+		if (cached != null) {
+			return new StepOutput(cached, true, 0, 0);
+		}
+		StepOutput output = callStep(prompt, previousResponse);
+		store(prompt, previousResponse, output.text());
+		return output;
+	}
+
+	/**
+	 * Runs a gated step. Only outputs passing the gate are cached, and only the
+	 * gated LLM step is called again when its output fails.
+	 */
+	private StepOutput runGated(int stepIndex, ChainStep.Gated gated, String previousResponse) {
+		if (!(gated.step() instanceof ChainStep.Prompt promptStep)) {
+			StepOutput output = runStep(stepIndex, gated.step(), previousResponse);
+			String violation = gated.gate().violation(output.text());
+			if (violation != null) {
+				throw new ChainGateException(stepIndex, gated.name(), violation, output.text());
+			}
+			return output;
+		}
+
+		String prompt = promptStep.systemPrompt();
+		String cached = cachedOutput(prompt, previousResponse);
+		if (cached != null && gated.gate().violation(cached) == null) {
+			return new StepOutput(cached, true, 0, 0);
+		}
+
+		String output = null;
+		String violation = null;
+		int promptTokens = 0;
+		int completionTokens = 0;
+		for (int attempt = 0; attempt <= gated.maxRetries(); attempt++) {
+			StepOutput attemptOutput = callStep(prompt, previousResponse);
+			output = attemptOutput.text();
+			promptTokens += attemptOutput.promptTokens();
+			completionTokens += attemptOutput.completionTokens();
+			violation = gated.gate().violation(output);
+			if (violation == null) {
+				store(prompt, previousResponse, output);
+				return new StepOutput(output, false, promptTokens, completionTokens);
+			}
+		}
+		throw new ChainGateException(stepIndex, gated.name(), violation, output);
+	}
+
+	/**
+	 * @return the cached output of the step, or {@code null} without a cache hit
+	 */
+	private String cachedOutput(String prompt, String previousResponse) {
+		return (cache != null) ? cache.get(ChainStepCache.key(prompt, previousResponse)) : null;
+	}
+
+	private StepOutput callStep(String prompt, String previousResponse) {
+
+		// 1. Compose the input using the response from the previous step.
+		String input = String.format("{%s}\n {%s}", prompt, previousResponse);
+
+		// 2. Call the chat client with the new input and get the new response.
+		ChatResponse chatResponse = chatClient.prompt(input).call().chatResponse();
+		if (chatResponse == null || chatResponse.getResult() == null) {
+			return new StepOutput(null, false, 0, 0);
+		}
+
+		Usage usage = (chatResponse.getMetadata() != null) ? chatResponse.getMetadata().getUsage() : null;
+		return new StepOutput(chatResponse.getResult().getOutput().getText(), false,
+				(usage != null) ? tokens(usage.getPromptTokens()) : 0,
+				(usage != null) ? tokens(usage.getCompletionTokens()) : 0);
+	}
+
+	/**
+	 * Stores the output of an LLM step in the cache, if any.
+	 */
+	private void store(String prompt, String previousResponse, String output) {
+		if (cache != null && output != null) {
+			cache.put(ChainStepCache.key(prompt, previousResponse), output);
+		}
+	}
+
+	private static int tokens(Integer tokens) {
+		return (tokens != null) ? tokens : 0;
+	}
+
+	private static int length(String text) {
+		return (text != null) ? text.length() : 0;
+	}
+
+	/**
+	 * The output of a step, whether it was served by the cache, and the tokens the
+	 * step consumed.
+	 */
+	private record StepOutput(String text, boolean cached, int promptTokens, int completionTokens) {
+	}
+
+	/**
+	 * A document travelling through the pipeline stages.
+	 */
+	private record Document(int index, String text) {
+
+		/**
+		 * Marker ending a stage. Compared by identity.
+		 */
+		static final Document END = new Document(-1, null);
 
-		return response;
 	}
 }
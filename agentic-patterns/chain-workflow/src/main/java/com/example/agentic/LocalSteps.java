@@ -0,0 +1,120 @@
+/*
+* Copyright 2024 - 2024 the original author or authors.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* https://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.example.agentic;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Local replacements for the deterministic steps of the default chain. They operate
+ * on the {@code 'value: metric'} lines produced by the extraction step and cost no
+ * LLM call.
+ *
+ * @author Christian Tzolov
+ * @see ChainStep#local(String, java.util.function.Function)
+ */
+public final class LocalSteps {
+
+	/**
+	 * Matches a {@code 'value: metric'} line, e.g. {@code 92 points: customer satisfaction}.
+	 */
+	private static final Pattern METRIC_LINE = Pattern.compile("^\\s*([^:]*?\\d[^:]*?)\\s*:\\s*(.+?)\\s*$");
+
+	private static final Pattern NUMBER = Pattern.compile("-?\\d[\\d,]*(?:\\.\\d+)?");
+
+	private static final Pattern POINTS = Pattern.compile("\\b(?:points?|pts?)\\b", Pattern.CASE_INSENSITIVE);
+
+	private LocalSteps() {
+	}
+
+	/**
+	 * A parsed {@code 'value: metric'} line.
+	 *
+	 * @param value   the raw value, e.g. {@code 45%} or {@code $43}
+	 * @param number  the numeric part of the value
+	 * @param percent whether the value is a percentage
+	 * @param metric  the metric name
+	 */
+	public record Metric(String value, BigDecimal number, boolean percent, String metric) {
+
+		@Override
+		public String toString() {
+			return this.value + ": " + this.metric;
+		}
+
+	}
+
+	/**
+	 * Parses the {@code 'value: metric'} lines of a step output. Lines without a
+	 * numerical value are skipped.
+	 *
+	 * @param text the step output
+	 * @return the parsed metrics in their original order
+	 */
+	public static List<Metric> parse(String text) {
+		List<Metric> metrics = new ArrayList<>();
+		for (String line : text.split("\\R")) {
+			Matcher lineMatcher = METRIC_LINE.matcher(line);
+			if (!lineMatcher.matches()) {
+				continue;
+			}
+			String value = lineMatcher.group(1).trim();
+			Matcher numberMatcher = NUMBER.matcher(value);
+			if (numberMatcher.find()) {
+				BigDecimal number = new BigDecimal(numberMatcher.group().replace(",", ""));
+				metrics.add(new Metric(value, number, value.contains("%"), lineMatcher.group(2)));
+			}
+		}
+		return metrics;
+	}
+
+	/**
+	 * Converts all values to percentages where possible, like the original LLM step:
+	 * percentages and points become percentages (e.g. {@code 92 points -> 92%}), and
+	 * all other values, such as currency amounts or counts, are converted to decimals
+	 * (e.g. {@code $43.50 -> 43.5}, {@code 150 employees -> 150}).
+	 *
+	 * @param text the {@code 'value: metric'} lines
+	 * @return one {@code 'value: metric'} line per value
+	 */
+	public static String toPercentages(String text) {
+		return parse(text).stream()
+				.map(metric -> metric.number().stripTrailingZeros().toPlainString()
+						+ ((metric.percent() || POINTS.matcher(metric.value()).find()) ? "%" : "") + ": "
+						+ metric.metric())
+				.collect(Collectors.joining("\n"));
+	}
+
+	/**
+	 * Sorts the lines in descending order by numerical value, keeping the
+	 * {@code 'value: metric'} format.
+	 *
+	 * @param text the {@code 'value: metric'} lines
+	 * @return the sorted lines
+	 */
+	public static String sortDescending(String text) {
+		return parse(text).stream()
+				.sorted(Comparator.comparing(Metric::number).reversed())
+				.map(Metric::toString)
+				.collect(Collectors.joining("\n"));
+	}
+
+}
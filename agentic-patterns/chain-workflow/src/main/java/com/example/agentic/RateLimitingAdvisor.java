@@ -0,0 +1,381 @@
+/*
+* Copyright 2024 - 2024 the original author or authors.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* https://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.example.agentic;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import reactor.core.publisher.Flux;
+
+import org.springframework.ai.chat.client.ChatClientRequest;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.client.advisor.api.BaseAdvisor;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisor;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisorChain;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisor;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisorChain;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.util.Assert;
+
+/**
+ * ChatClient advisor that keeps the calls of a workflow within the provider's rate
+ * limits, instead of firing requests until the provider answers with HTTP 429.
+ *
+ * <p>
+ * For every model the advisor keeps two token buckets: one for requests per minute
+ * (RPM) and one for estimated tokens per minute (TPM). Each call reserves one request
+ * and its estimated prompt and completion tokens before it is sent. When a bucket is
+ * empty the caller waits until its reservation is covered. Reservations are granted in
+ * arrival order, so waiting callers are served fairly. Once a call completes, the
+ * estimate is corrected with the token usage reported by the model; for a stream,
+ * with the usage of the last chunk reporting it. A call that is abandoned before it
+ * is sent, e.g. because the caller is interrupted or cancels the stream while
+ * waiting, returns its reservation. A call that reached the provider keeps it, even
+ * if it fails: the provider counts rejected and failed requests against its limits
+ * too.
+ *
+ * <p>
+ * Register the advisor as a default advisor of the ChatClient used by the workflow,
+ * and share one instance between all ChatClients calling the same provider account.
+ *
+ * @author Christian Tzolov
+ * @see <a href="https://docs.spring.io/spring-ai/reference/api/advisors.html">Spring
+ *      AI Advisors</a>
+ */
+public final class RateLimitingAdvisor implements CallAdvisor, StreamAdvisor {
+
+	private static final String DEFAULT_MODEL = "default";
+
+	/**
+	 * Rough number of characters per token used to estimate the size of a prompt.
+	 */
+	private static final int CHARS_PER_TOKEN = 4;
+
+	private final Limits defaultLimits;
+
+	private final Map<String, Limits> modelLimits;
+
+	private final int expectedCompletionTokens;
+
+	private final int advisorOrder;
+
+	private final Map<String, ModelBuckets> buckets = new ConcurrentHashMap<>();
+
+	/**
+	 * Requests and tokens per minute allowed for a model.
+	 *
+	 * @param requestsPerMinute the maximum requests per minute
+	 * @param tokensPerMinute   the maximum prompt and completion tokens per minute
+	 */
+	public record Limits(int requestsPerMinute, int tokensPerMinute) {
+
+		public Limits {
+			Assert.isTrue(requestsPerMinute > 0, "requestsPerMinute must be greater than 0");
+			Assert.isTrue(tokensPerMinute > 0, "tokensPerMinute must be greater than 0");
+		}
+
+	}
+
+	private RateLimitingAdvisor(Limits defaultLimits, Map<String, Limits> modelLimits, int expectedCompletionTokens,
+			int advisorOrder) {
+		this.defaultLimits = defaultLimits;
+		this.modelLimits = Map.copyOf(modelLimits);
+		this.expectedCompletionTokens = expectedCompletionTokens;
+		this.advisorOrder = advisorOrder;
+	}
+
+	@Override
+	public String getName() {
+		return "Rate Limiting Advisor";
+	}
+
+	@Override
+	public int getOrder() {
+		return this.advisorOrder;
+	}
+
+	@Override
+	public ChatClientResponse adviseCall(ChatClientRequest chatClientRequest, CallAdvisorChain callAdvisorChain) {
+		Assert.notNull(chatClientRequest, "chatClientRequest must not be null");
+		Assert.notNull(callAdvisorChain, "callAdvisorChain must not be null");
+
+		ModelBuckets modelBuckets = bucketsFor(chatClientRequest);
+		int estimatedTokens = estimateTokens(chatClientRequest);
+
+		long waitNanos = modelBuckets.reserve(estimatedTokens);
+		if (waitNanos > 0) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(waitNanos);
+			} catch (InterruptedException e) {
+				modelBuckets.cancel(estimatedTokens);
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for the rate limit", e);
+			}
+		}
+
+		ChatClientResponse response = callAdvisorChain.nextCall(chatClientRequest);
+
+		Integer usedTokens = usedTokens(response);
+		if (usedTokens != null) {
+			modelBuckets.correct(usedTokens - estimatedTokens);
+		}
+		return response;
+	}
+
+	@Override
+	public Flux<ChatClientResponse> adviseStream(ChatClientRequest chatClientRequest,
+			StreamAdvisorChain streamAdvisorChain) {
+		Assert.notNull(chatClientRequest, "chatClientRequest must not be null");
+		Assert.notNull(streamAdvisorChain, "streamAdvisorChain must not be null");
+
+		return Flux.defer(() -> {
+			ModelBuckets modelBuckets = bucketsFor(chatClientRequest);
+			int estimatedTokens = estimateTokens(chatClientRequest);
+			long waitNanos = modelBuckets.reserve(estimatedTokens);
+
+			// Providers report the usage of a stream in its last chunks.
+			AtomicReference<Integer> usedTokens = new AtomicReference<>();
+			AtomicBoolean sent = new AtomicBoolean();
+			return streamAdvisorChain.nextStream(chatClientRequest)
+				.doOnSubscribe(subscription -> sent.set(true))
+				.delaySubscription(Duration.ofNanos(waitNanos))
+				.doOnNext(response -> {
+					Integer used = usedTokens(response);
+					if (used != null) {
+						usedTokens.set(used);
+					}
+				})
+				.doFinally(signal -> {
+					Integer used = usedTokens.get();
+					if (used != null) {
+						modelBuckets.correct(used - estimatedTokens);
+					} else if (!sent.get()) {
+						// Cancelled while waiting, the request never reached the provider.
+						modelBuckets.cancel(estimatedTokens);
+					}
+				});
+		});
+	}
+
+	/**
+	 * @param model the model name, or {@code null} for calls without a model option
+	 * @return the current number of available requests of the model's bucket; negative
+	 *         while callers are waiting
+	 */
+	public double availableRequests(String model) {
+		return this.buckets.computeIfAbsent(modelKey(model), this::newBuckets).requests.available();
+	}
+
+	/**
+	 * @param model the model name, or {@code null} for calls without a model option
+	 * @return the current number of available tokens of the model's bucket; negative
+	 *         while callers are waiting
+	 */
+	public double availableTokens(String model) {
+		return this.buckets.computeIfAbsent(modelKey(model), this::newBuckets).tokens.available();
+	}
+
+	private ModelBuckets bucketsFor(ChatClientRequest request) {
+		ChatOptions options = request.prompt().getOptions();
+		String model = (options != null) ? options.getModel() : null;
+		return this.buckets.computeIfAbsent(modelKey(model), this::newBuckets);
+	}
+
+	private ModelBuckets newBuckets(String model) {
+		Limits limits = this.modelLimits.getOrDefault(model, this.defaultLimits);
+		return new ModelBuckets(new TokenBucket(limits.requestsPerMinute()),
+				new TokenBucket(limits.tokensPerMinute()));
+	}
+
+	private int estimateTokens(ChatClientRequest request) {
+		String contents = request.prompt().getContents();
+		int promptTokens = (contents != null) ? contents.length() / CHARS_PER_TOKEN + 1 : 0;
+		ChatOptions options = request.prompt().getOptions();
+		Integer maxTokens = (options != null) ? options.getMaxTokens() : null;
+		int completionTokens = (maxTokens != null) ? Math.min(maxTokens, this.expectedCompletionTokens)
+				: this.expectedCompletionTokens;
+		return promptTokens + completionTokens;
+	}
+
+	private static Integer usedTokens(ChatClientResponse response) {
+		if (response == null || response.chatResponse() == null || response.chatResponse().getMetadata() == null) {
+			return null;
+		}
+		Usage usage = response.chatResponse().getMetadata().getUsage();
+		return (usage != null) ? usage.getTotalTokens() : null;
+	}
+
+	private static String modelKey(String model) {
+		return (model != null) ? model : DEFAULT_MODEL;
+	}
+
+	/**
+	 * The request and token buckets of a single model.
+	 */
+	private record ModelBuckets(TokenBucket requests, TokenBucket tokens) {
+
+		/**
+		 * Reserves one request and the given tokens.
+		 *
+		 * @return the nanoseconds to wait until the reservation is covered
+		 */
+		long reserve(int estimatedTokens) {
+			// Reservations are taken under one lock so both buckets grant them in the
+			// same arrival order.
+			synchronized (this) {
+				return Math.max(this.requests.reserve(1), this.tokens.reserve(estimatedTokens));
+			}
+		}
+
+		void cancel(int estimatedTokens) {
+			this.requests.correct(-1);
+			this.tokens.correct(-estimatedTokens);
+		}
+
+		void correct(int tokenDelta) {
+			this.tokens.correct(tokenDelta);
+		}
+
+	}
+
+	/**
+	 * Token bucket refilled continuously at its per-minute capacity. Reservations may
+	 * overdraw the bucket; the resulting debt defines how long the caller must wait.
+	 */
+	private static final class TokenBucket {
+
+		private final double capacity;
+
+		private final double refillPerNano;
+
+		private double available;
+
+		private long lastRefillNanos;
+
+		TokenBucket(int perMinute) {
+			this.capacity = perMinute;
+			this.refillPerNano = perMinute / (double) TimeUnit.MINUTES.toNanos(1);
+			this.available = perMinute;
+			this.lastRefillNanos = System.nanoTime();
+		}
+
+		synchronized long reserve(double amount) {
+			refill();
+			this.available -= amount;
+			return (this.available >= 0) ? 0 : (long) Math.ceil(-this.available / this.refillPerNano);
+		}
+
+		synchronized void correct(double delta) {
+			refill();
+			this.available = Math.min(this.capacity, this.available - delta);
+		}
+
+		synchronized double available() {
+			refill();
+			return this.available;
+		}
+
+		private void refill() {
+			long now = System.nanoTime();
+			this.available = Math.min(this.capacity, this.available + (now - this.lastRefillNanos) * this.refillPerNano);
+			this.lastRefillNanos = now;
+		}
+
+	}
+
+	/**
+	 * Creates a new Builder for the RateLimitingAdvisor.
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * Builder class for the RateLimitingAdvisor.
+	 */
+	public static final class Builder {
+
+		private int requestsPerMinute = 50;
+
+		private int tokensPerMinute = 40_000;
+
+		private final Map<String, Limits> modelLimits = new HashMap<>();
+
+		private int expectedCompletionTokens = 1_000;
+
+		private int advisorOrder = BaseAdvisor.LOWEST_PRECEDENCE - 1000;
+
+		private Builder() {
+		}
+
+		/**
+		 * Sets the requests per minute of models without specific limits.
+		 */
+		public Builder requestsPerMinute(int requestsPerMinute) {
+			Assert.isTrue(requestsPerMinute > 0, "requestsPerMinute must be greater than 0");
+			this.requestsPerMinute = requestsPerMinute;
+			return this;
+		}
+
+		/**
+		 * Sets the tokens per minute of models without specific limits.
+		 */
+		public Builder tokensPerMinute(int tokensPerMinute) {
+			Assert.isTrue(tokensPerMinute > 0, "tokensPerMinute must be greater than 0");
+			this.tokensPerMinute = tokensPerMinute;
+			return this;
+		}
+
+		/**
+		 * Sets the limits of a specific model.
+		 */
+		public Builder modelLimits(String model, int requestsPerMinute, int tokensPerMinute) {
+			Assert.hasText(model, "model must not be empty");
+			this.modelLimits.put(model, new Limits(requestsPerMinute, tokensPerMinute));
+			return this;
+		}
+
+		/**
+		 * Sets the completion tokens reserved for a call before its actual usage is
+		 * known. A lower max tokens option of the call takes precedence.
+		 */
+		public Builder expectedCompletionTokens(int expectedCompletionTokens) {
+			Assert.isTrue(expectedCompletionTokens >= 0, "expectedCompletionTokens must not be negative");
+			this.expectedCompletionTokens = expectedCompletionTokens;
+			return this;
+		}
+
+		public Builder order(int advisorOrder) {
+			Assert.isTrue(advisorOrder > BaseAdvisor.HIGHEST_PRECEDENCE && advisorOrder < BaseAdvisor.LOWEST_PRECEDENCE,
+					"advisorOrder must be between HIGHEST_PRECEDENCE and LOWEST_PRECEDENCE");
+			this.advisorOrder = advisorOrder;
+			return this;
+		}
+
+		public RateLimitingAdvisor build() {
+			return new RateLimitingAdvisor(new Limits(this.requestsPerMinute, this.tokensPerMinute), this.modelLimits,
+					this.expectedCompletionTokens, this.advisorOrder);
+		}
+
+	}
+
+}
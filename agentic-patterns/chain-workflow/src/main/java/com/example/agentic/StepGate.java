@@ -0,0 +1,109 @@
+/*
+* Copyright 2024 - 2024 the original author or authors.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* https://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.example.agentic;
+
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import org.springframework.util.Assert;
+
+/**
+ * Cheap local check of a step's output, run before the output is handed to the next
+ * step. A gate catches malformed intermediate results right where they are produced,
+ * so the chain can retry that single step or stop early instead of paying for the
+ * remaining LLM calls on garbage.
+ *
+ * @author Christian Tzolov
+ * @see ChainStep#gated(ChainStep, StepGate, int)
+ */
+@FunctionalInterface
+public interface StepGate {
+
+	/**
+	 * Checks the output of a step.
+	 *
+	 * @param output the output of the step, may be {@code null}
+	 * @return a description of the violation, or {@code null} if the output passes
+	 */
+	String violation(String output);
+
+	/**
+	 * Combines this gate with another one. The other gate only runs if this one
+	 * passes.
+	 *
+	 * @param other the gate to run after this one
+	 * @return the combined gate
+	 */
+	default StepGate and(StepGate other) {
+		Assert.notNull(other, "Gate must not be null");
+		return output -> {
+			String violation = violation(output);
+			return (violation != null) ? violation : other.violation(output);
+		};
+	}
+
+	/**
+	 * Creates a gate from a predicate.
+	 *
+	 * @param check     the check the output must pass
+	 * @param violation the description of a failed check
+	 * @return the gate
+	 */
+	static StepGate of(Predicate<String> check, String violation) {
+		Assert.notNull(check, "Check must not be null");
+		Assert.hasText(violation, "Violation must not be empty");
+		return output -> (output != null && check.test(output)) ? null : violation;
+	}
+
+	/**
+	 * Creates a gate requiring every non-blank line of the output to match a regular
+	 * expression.
+	 *
+	 * @param regex the regular expression every line must match entirely
+	 * @return the gate
+	 */
+	static StepGate eachLineMatches(String regex) {
+		Pattern pattern = Pattern.compile(regex);
+		return output -> {
+			if (output == null) {
+				return "Output is empty";
+			}
+			for (String line : output.split("\\R")) {
+				if (!line.isBlank() && !pattern.matcher(line.strip()).matches()) {
+					return "Line does not match " + regex + ": " + line.strip();
+				}
+			}
+			return null;
+		};
+	}
+
+	/**
+	 * Creates a gate bounding the number of non-blank lines of the output.
+	 *
+	 * @param min the minimum number of lines
+	 * @param max the maximum number of lines
+	 * @return the gate
+	 */
+	static StepGate lineCount(int min, int max) {
+		Assert.isTrue(min >= 0 && max >= min, "Line count bounds must satisfy 0 <= min <= max");
+		return output -> {
+			long lines = (output != null) ? output.lines().filter(line -> !line.isBlank()).count() : 0;
+			return (lines >= min && lines <= max) ? null
+					: "Expected between " + min + " and " + max + " lines but got " + lines;
+		};
+	}
+
+}
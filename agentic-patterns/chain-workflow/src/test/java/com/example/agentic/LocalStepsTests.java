@@ -0,0 +1,61 @@
+/*
+* Copyright 2024 - 2024 the original author or authors.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* https://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.example.agentic;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests for {@link LocalSteps}.
+ *
+ * @author Christian Tzolov
+ */
+class LocalStepsTests {
+
+	private static final String METRICS = """
+			Q3 Performance Summary:
+			92 points: customer satisfaction
+			45%: revenue growth
+			$43.50: cost per acquisition
+			1,200 employees: headcount
+			no value: skipped metric
+			""";
+
+	@Test
+	void skipsLinesWithoutANumericalValue() {
+		assertThat(LocalSteps.parse(METRICS)).hasSize(4);
+	}
+
+	@Test
+	void addsThePercentSignOnlyToPercentagesAndPoints() {
+		assertThat(LocalSteps.toPercentages(METRICS)).isEqualTo("""
+				92%: customer satisfaction
+				45%: revenue growth
+				43.5: cost per acquisition
+				1200: headcount""");
+	}
+
+	@Test
+	void sortsByNumericalValue() {
+		assertThat(LocalSteps.sortDescending(LocalSteps.toPercentages(METRICS))).isEqualTo("""
+				1200: headcount
+				92%: customer satisfaction
+				45%: revenue growth
+				43.5: cost per acquisition""");
+	}
+
+}
@@ -19,6 +19,7 @@ package com.example.agentic;
 import com.example.agentic.EvaluatorOptimizer.RefinedResponse;
 
 import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
@@ -36,8 +37,19 @@ public class Application {
 	}
 
 	@Bean
-	public CommandLineRunner commandLineRunner(ChatClient.Builder chatClientBuilder) {
-		var chatClient = chatClientBuilder.build();
+	public RateLimitingAdvisor rateLimitingAdvisor(
+			@Value("${agentic.rate-limit.requests-per-minute:50}") int requestsPerMinute,
+			@Value("${agentic.rate-limit.tokens-per-minute:40000}") int tokensPerMinute) {
+		return RateLimitingAdvisor.builder()
+				.requestsPerMinute(requestsPerMinute)
+				.tokensPerMinute(tokensPerMinute)
+				.build();
+	}
+
+	@Bean
+	public CommandLineRunner commandLineRunner(ChatClient.Builder chatClientBuilder,
+			RateLimitingAdvisor rateLimitingAdvisor) {
+		var chatClient = chatClientBuilder.defaultAdvisors(rateLimitingAdvisor).build();
 		return args -> {
 			RefinedResponse refinedResponse = new EvaluatorOptimizer(chatClient).loop("""
 					<user input>
@@ -16,7 +16,16 @@
 */
 package com.example.agentic;
 
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
@@ -34,12 +43,76 @@ public class Application {
 	}
 
 	@Bean
-	public CommandLineRunner commandLineRunner(ChatClient.Builder chatClientBuilder) {
-		var chatClient = chatClientBuilder.build();
+	public RateLimitingAdvisor rateLimitingAdvisor(
+			@Value("${agentic.rate-limit.requests-per-minute:50}") int requestsPerMinute,
+			@Value("${agentic.rate-limit.tokens-per-minute:40000}") int tokensPerMinute) {
+		return RateLimitingAdvisor.builder()
+				.requestsPerMinute(requestsPerMinute)
+				.tokensPerMinute(tokensPerMinute)
+				.build();
+	}
+
+	@Bean(destroyMethod = "close")
+	public ExecutorService llmCallExecutor() {
+		return Executors.newVirtualThreadPerTaskExecutor();
+	}
+
+	@Bean
+	public WorkerModelSelector workerModelSelector(ChatClient.Builder chatClientBuilder,
+			RateLimitingAdvisor rateLimitingAdvisor,
+			@Value("${orchestrator.worker-models.fast.model}") String fastModel,
+			@Value("${orchestrator.worker-models.fast.cost-per-1k-tokens}") double fastCost,
+			@Value("${orchestrator.worker-models.fast.max-output-tokens}") int fastMaxOutputTokens,
+			@Value("${orchestrator.worker-models.strong.model}") String strongModel,
+			@Value("${orchestrator.worker-models.strong.cost-per-1k-tokens}") double strongCost,
+			@Value("${orchestrator.worker-models.latency-cost-per-second:0}") double latencyCostPerSecond,
+			@Value("#{${orchestrator.worker-models.min-output-length:{:}}}") Map<String, Integer> minOutputLength) {
+		return WorkerModelSelector.builder()
+				.model(fastModel, workerClient(chatClientBuilder, rateLimitingAdvisor, fastModel), fastCost, Set.of(),
+						fastMaxOutputTokens)
+				.strongModel(strongModel, workerClient(chatClientBuilder, rateLimitingAdvisor, strongModel), strongCost)
+				// A short answer is fine for some task types but not for others.
+				.qualityGate((task, output) -> output.strip().length() >= minOutputLength.getOrDefault(task.type(), 1))
+				.latencyCostPerSecond(latencyCostPerSecond)
+				.build();
+	}
+
+	private static ChatClient workerClient(ChatClient.Builder chatClientBuilder,
+			RateLimitingAdvisor rateLimitingAdvisor, String model) {
+		return chatClientBuilder.clone()
+				.defaultOptions(ChatOptions.builder().model(model).build())
+				.defaultAdvisors(rateLimitingAdvisor)
+				.build();
+	}
+
+	@Bean(destroyMethod = "close")
+	public ExecutionJournal executionJournal(@Value("${orchestrator.journal.file}") String file) {
+		return new ExecutionJournal(Path.of(file));
+	}
+
+	@Bean
+	public CommandLineRunner commandLineRunner(ChatClient.Builder chatClientBuilder,
+			RateLimitingAdvisor rateLimitingAdvisor, ExecutorService llmCallExecutor,
+			WorkerModelSelector workerModelSelector, ExecutionJournal executionJournal,
+			@Value("${orchestrator.journal.run-id:}") String runId,
+			@Value("${orchestrator.worker-models.enabled:false}") boolean workerModelsEnabled,
+			@Value("${orchestrator.max-concurrent-workers:8}") int maxConcurrentWorkers,
+			@Value("${orchestrator.worker-timeout:2m}") Duration workerTimeout,
+			@Value("${orchestrator.streaming:false}") boolean streaming) {
+		var chatClient = chatClientBuilder.defaultAdvisors(rateLimitingAdvisor).build();
 		return args -> {
 
-			new OrchestratorWorkers(chatClient)
-					.process("Write a product description for a new eco-friendly water bottle");
+			var orchestratorWorkers = new OrchestratorWorkers(chatClient, OrchestratorWorkers.DEFAULT_ORCHESTRATOR_PROMPT,
+					OrchestratorWorkers.DEFAULT_WORKER_PROMPT, llmCallExecutor, maxConcurrentWorkers, workerTimeout,
+					workerModelsEnabled ? workerModelSelector : null, executionJournal);
+
+			String task = "Write a product description for a new eco-friendly water bottle";
+			String journalRunId = runId.isBlank() ? null : runId;
+			if (streaming) {
+				orchestratorWorkers.processStreaming(task, journalRunId);
+			} else {
+				orchestratorWorkers.process(task, journalRunId);
+			}
 
 		};
 	}
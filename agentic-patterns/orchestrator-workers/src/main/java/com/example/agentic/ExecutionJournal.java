@@ -0,0 +1,319 @@
+/*
+* Copyright 2024 - 2024 the original author or authors.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* https://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.example.agentic;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.util.Assert;
+
+/**
+ * Append-only, file-backed journal of the completed steps of workflow runs, so a
+ * run interrupted by a crash or a redeploy can be resumed without repeating the
+ * LLM calls it already made.
+ *
+ * <p>
+ * Every record holds a run id, a step name, a SHA-256 hash of the step's input and
+ * the step's output. A restarted run with the same run id replays the output of
+ * every recorded step whose input is unchanged, and calls the LLM from the first
+ * missing or changed step on. Failed steps are never recorded, so they are retried.
+ *
+ * <p>
+ * Records are written to the file as soon as they are added, so they survive a
+ * crash of the JVM. To survive a crash of the machine they must also be synced to
+ * the disk. Syncs are batched: a sync covers all records written before it and
+ * happens once the pending records reach a maximum count, or at the latest after a
+ * maximum delay, and when the journal is closed. A torn record at the end of the
+ * file is discarded when the journal is opened.
+ *
+ * <p>
+ * The journal is never compacted. The records of finished runs stay in the file
+ * and in memory, and are all loaded when the journal is opened. Rotate the file,
+ * for example by starting a new one per day or per deployment, once old runs no
+ * longer need to be resumed.
+ *
+ * @author Christian Tzolov
+ */
+public class ExecutionJournal implements AutoCloseable {
+
+	/**
+	 * Default number of pending records that triggers a sync.
+	 */
+	public static final int DEFAULT_MAX_UNSYNCED_RECORDS = 16;
+
+	/**
+	 * Default maximum delay before pending records are synced.
+	 */
+	public static final Duration DEFAULT_MAX_SYNC_DELAY = Duration.ofMillis(200);
+
+	private static final char SEPARATOR = '\t';
+
+	private static final char NEWLINE = '\n';
+
+	private final FileChannel channel;
+
+	private final int maxUnsyncedRecords;
+
+	private final ScheduledExecutorService syncScheduler;
+
+	/**
+	 * Serializes syncs, so the pending record count is only lowered by the sync
+	 * that forced those records.
+	 */
+	private final Object syncLock = new Object();
+
+	/**
+	 * Output and input hash of every recorded step, by run id and step name.
+	 */
+	private final Map<String, Map<String, Entry>> runs = new HashMap<>();
+
+	private int unsyncedRecords;
+
+	private record Entry(String inputHash, String output) {
+	}
+
+	/**
+	 * Opens a journal with the default sync batching.
+	 *
+	 * @param file the journal file, created if missing
+	 */
+	public ExecutionJournal(Path file) {
+		this(file, DEFAULT_MAX_UNSYNCED_RECORDS, DEFAULT_MAX_SYNC_DELAY);
+	}
+
+	/**
+	 * Opens a journal and loads the records of the file.
+	 *
+	 * @param file               the journal file, created if missing
+	 * @param maxUnsyncedRecords the number of pending records that triggers a sync
+	 * @param maxSyncDelay       the maximum delay before pending records are synced
+	 */
+	public ExecutionJournal(Path file, int maxUnsyncedRecords, Duration maxSyncDelay) {
+		Assert.notNull(file, "File must not be null");
+		Assert.isTrue(maxUnsyncedRecords > 0, "Max unsynced records must be greater than 0");
+		Assert.isTrue(maxSyncDelay != null && !maxSyncDelay.isNegative() && !maxSyncDelay.isZero(),
+				"Max sync delay must be positive");
+
+		this.maxUnsyncedRecords = maxUnsyncedRecords;
+		try {
+			Path parent = file.toAbsolutePath().getParent();
+			if (parent != null) {
+				Files.createDirectories(parent);
+			}
+			this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+					StandardOpenOption.WRITE);
+			load();
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to open execution journal " + file, e);
+		}
+
+		this.syncScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "execution-journal-sync");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long delayNanos = maxSyncDelay.toNanos();
+		this.syncScheduler.scheduleWithFixedDelay(this::syncQuietly, delayNanos, delayNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Returns the recorded output of a step.
+	 *
+	 * @param runId the id of the run
+	 * @param step  the name of the step, unique within the run
+	 * @param input everything the output of the step depends on
+	 * @return the recorded output, or {@code null} if the step is not recorded or
+	 *         was recorded with a different input
+	 */
+	public synchronized String replay(String runId, String step, String input) {
+		Entry entry = this.runs.getOrDefault(runId, Map.of()).get(step);
+		return (entry != null && entry.inputHash().equals(hash(input))) ? entry.output() : null;
+	}
+
+	/**
+	 * Appends the output of a completed step. A later record of the same step
+	 * replaces the earlier one.
+	 *
+	 * @param runId  the id of the run
+	 * @param step   the name of the step, unique within the run
+	 * @param input  everything the output of the step depends on
+	 * @param output the output of the step
+	 */
+	public void record(String runId, String step, String input, String output) {
+		Assert.hasText(runId, "Run id must not be empty");
+		Assert.hasText(step, "Step must not be empty");
+		Assert.notNull(input, "Input must not be null");
+		Assert.notNull(output, "Output must not be null");
+
+		String inputHash = hash(input);
+		String line = encode(runId) + SEPARATOR + encode(step) + SEPARATOR + inputHash + SEPARATOR + encode(output)
+				+ NEWLINE;
+		boolean syncDue;
+		synchronized (this) {
+			Assert.state(this.channel.isOpen(), "Execution journal is closed");
+			try {
+				ByteBuffer buffer = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+				while (buffer.hasRemaining()) {
+					this.channel.write(buffer);
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException("Failed to append to execution journal", e);
+			}
+			this.runs.computeIfAbsent(runId, id -> new LinkedHashMap<>()).put(step, new Entry(inputHash, output));
+			syncDue = ++this.unsyncedRecords >= this.maxUnsyncedRecords;
+		}
+		if (syncDue) {
+			sync();
+		}
+	}
+
+	/**
+	 * @param runId the id of the run
+	 * @return the names of the recorded steps of the run
+	 */
+	public synchronized Set<String> completedSteps(String runId) {
+		return Set.copyOf(this.runs.getOrDefault(runId, Map.of()).keySet());
+	}
+
+	/**
+	 * Syncs all records written so far to the disk.
+	 */
+	public void sync() {
+		synchronized (this.syncLock) {
+			int pendingRecords;
+			synchronized (this) {
+				pendingRecords = this.unsyncedRecords;
+				if (pendingRecords == 0 || !this.channel.isOpen()) {
+					return;
+				}
+			}
+			// Forced outside the journal lock, so steps completing meanwhile can
+			// append their records. They stay pending until the next sync.
+			try {
+				this.channel.force(false);
+			} catch (ClosedChannelException e) {
+				// Closed concurrently; close forced all records before closing.
+				return;
+			} catch (IOException e) {
+				throw new UncheckedIOException("Failed to sync execution journal", e);
+			}
+			synchronized (this) {
+				this.unsyncedRecords -= pendingRecords;
+			}
+		}
+	}
+
+	/**
+	 * Syncs the pending records and closes the journal file.
+	 */
+	@Override
+	public void close() {
+		this.syncScheduler.shutdown();
+		synchronized (this) {
+			if (!this.channel.isOpen()) {
+				return;
+			}
+			try {
+				this.channel.force(false);
+				this.unsyncedRecords = 0;
+				this.channel.close();
+			} catch (IOException e) {
+				throw new UncheckedIOException("Failed to close execution journal", e);
+			}
+		}
+	}
+
+	private void syncQuietly() {
+		try {
+			sync();
+		} catch (UncheckedIOException | IllegalStateException e) {
+			// Retried by the next scheduled sync, or by close.
+		}
+	}
+
+	/**
+	 * Loads the complete records of the file and truncates a torn record at its end.
+	 */
+	private void load() throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate((int) this.channel.size());
+		while (buffer.hasRemaining() && this.channel.read(buffer, buffer.position()) >= 0) {
+			// Read until the buffer is full.
+		}
+		byte[] bytes = buffer.array();
+
+		int lineStart = 0;
+		for (int i = 0; i < bytes.length; i++) {
+			if (bytes[i] == NEWLINE) {
+				parse(new String(bytes, lineStart, i - lineStart, StandardCharsets.UTF_8));
+				lineStart = i + 1;
+			}
+		}
+		if (lineStart < bytes.length) {
+			this.channel.truncate(lineStart);
+		}
+		this.channel.position(lineStart);
+	}
+
+	private void parse(String line) {
+		String[] fields = line.split(String.valueOf(SEPARATOR), -1);
+		if (fields.length != 4) {
+			return;
+		}
+		try {
+			this.runs.computeIfAbsent(decode(fields[0]), id -> new LinkedHashMap<>())
+				.put(decode(fields[1]), new Entry(fields[2], decode(fields[3])));
+		} catch (IllegalArgumentException e) {
+			// A corrupted record is treated as missing, so its step runs again.
+		}
+	}
+
+	private static String encode(String text) {
+		return Base64.getEncoder().encodeToString(text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String decode(String text) {
+		return new String(Base64.getDecoder().decode(text), StandardCharsets.UTF_8);
+	}
+
+	private static String hash(String input) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			return HexFormat.of().formatHex(digest.digest(input.getBytes(StandardCharsets.UTF_8)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available", e);
+		}
+	}
+
+}
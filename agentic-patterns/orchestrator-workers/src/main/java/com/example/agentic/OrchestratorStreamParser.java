@@ -0,0 +1,207 @@
+/*
+* Copyright 2024 - 2024 the original author or authors.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* https://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.example.agentic;
+
+import java.util.function.Consumer;
+
+import org.springframework.util.Assert;
+
+/**
+ * Incremental parser of a streamed orchestrator response. It is fed the response
+ * chunk by chunk and hands over every element of the top-level {@code tasks} array
+ * as soon as the element's closing brace has arrived, long before the whole
+ * response is complete.
+ *
+ * <p>
+ * The parser only tracks the structure of the JSON document: nesting, strings and
+ * escapes. Text before the first opening brace, such as a markdown code fence, is
+ * skipped, as is anything after the top-level object has closed. The value of the
+ * top-level {@code analysis} string is captured as well.
+ *
+ * @author Christian Tzolov
+ * @see OrchestratorWorkers#processStreaming(String)
+ */
+final class OrchestratorStreamParser {
+
+	private final Consumer<String> taskConsumer;
+
+	private int depth;
+
+	private boolean inString;
+
+	private boolean escaped;
+
+	private boolean done;
+
+	/** Whether the next string at depth 1 is a key of the top-level object. */
+	private boolean expectingKey;
+
+	private String lastKey;
+
+	/** Depth of the tasks array's elements, or -1 outside the tasks array. */
+	private int tasksElementDepth = -1;
+
+	private final StringBuilder string = new StringBuilder();
+
+	private StringBuilder element;
+
+	private String analysis;
+
+	private int tasks;
+
+	/**
+	 * @param taskConsumer receives the JSON text of every completed task element
+	 */
+	OrchestratorStreamParser(Consumer<String> taskConsumer) {
+		Assert.notNull(taskConsumer, "Task consumer must not be null");
+		this.taskConsumer = taskConsumer;
+	}
+
+	/**
+	 * Feeds the next chunk of the response.
+	 *
+	 * @param chunk the chunk, may be {@code null}
+	 */
+	void accept(String chunk) {
+		if (chunk == null) {
+			return;
+		}
+		for (int i = 0; i < chunk.length() && !this.done; i++) {
+			accept(chunk.charAt(i));
+		}
+	}
+
+	/**
+	 * @return the value of the top-level {@code analysis} field, or {@code null} if
+	 *         it has not been parsed
+	 */
+	String analysis() {
+		return this.analysis;
+	}
+
+	/**
+	 * @return the number of task elements handed over so far
+	 */
+	int tasks() {
+		return this.tasks;
+	}
+
+	/**
+	 * @return whether the top-level object has been closed
+	 */
+	boolean isComplete() {
+		return this.done;
+	}
+
+	private void accept(char c) {
+		if (this.depth == 0 && c != '{') {
+			return;
+		}
+		if (this.element != null) {
+			this.element.append(c);
+		}
+
+		if (this.inString) {
+			if (this.escaped) {
+				this.escaped = false;
+				this.string.append('\\').append(c);
+			} else if (c == '\\') {
+				this.escaped = true;
+			} else if (c == '"') {
+				this.inString = false;
+				endString(unescape(this.string));
+			} else {
+				this.string.append(c);
+			}
+			return;
+		}
+
+		switch (c) {
+			case '"' -> {
+				this.inString = true;
+				this.string.setLength(0);
+			}
+			case '{', '[' -> {
+				if (c == '{' && this.depth == this.tasksElementDepth) {
+					this.element = new StringBuilder("{");
+				}
+				if (c == '[' && this.depth == 1 && "tasks".equals(this.lastKey)) {
+					this.tasksElementDepth = 2;
+				}
+				this.depth++;
+				this.expectingKey = (this.depth == 1);
+			}
+			case '}', ']' -> {
+				this.depth--;
+				if (c == '}' && this.depth == this.tasksElementDepth && this.element != null) {
+					String task = this.element.toString();
+					this.element = null;
+					this.tasks++;
+					this.taskConsumer.accept(task);
+				}
+				if (c == ']' && this.depth == 1) {
+					this.tasksElementDepth = -1;
+				}
+				this.done = (this.depth == 0);
+			}
+			case ',' -> this.expectingKey = (this.depth == 1);
+			case ':' -> this.expectingKey = false;
+			default -> {
+			}
+		}
+	}
+
+	private void endString(String value) {
+		if (this.depth != 1) {
+			return;
+		}
+		if (this.expectingKey) {
+			this.lastKey = value;
+		} else if ("analysis".equals(this.lastKey)) {
+			this.analysis = value;
+		}
+	}
+
+	private static String unescape(CharSequence escaped) {
+		StringBuilder value = new StringBuilder(escaped.length());
+		for (int i = 0; i < escaped.length(); i++) {
+			char c = escaped.charAt(i);
+			if (c != '\\' || i + 1 >= escaped.length()) {
+				value.append(c);
+				continue;
+			}
+			char next = escaped.charAt(++i);
+			switch (next) {
+				case 'n' -> value.append('\n');
+				case 'r' -> value.append('\r');
+				case 't' -> value.append('\t');
+				case 'b' -> value.append('\b');
+				case 'f' -> value.append('\f');
+				case 'u' -> {
+					try {
+						value.append((char) Integer.parseInt(escaped.subSequence(i + 1, i + 5).toString(), 16));
+						i += 4;
+					} catch (IndexOutOfBoundsException | NumberFormatException e) {
+						value.append("\\u");
+					}
+				}
+				default -> value.append(next);
+			}
+		}
+		return value.toString();
+	}
+
+}
@@ -15,9 +15,24 @@
 */
 package com.example.agentic;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.example.agentic.WorkerModelSelector.WorkerModel;
 
 import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.converter.BeanOutputConverter;
 import org.springframework.util.Assert;
 
 /**
@@ -58,6 +73,28 @@ import org.springframework.util.Assert;
  * particularly effective for tasks that require adaptive problem-solving and
  * coordination between multiple
  * specialized components.
+ * <p/>
+ * Workers are independent by design and run concurrently on an {@link Executor}
+ * (by default a JVM-wide virtual thread executor), bounded by a concurrency limit
+ * shared by all calls of the instance. Every worker has a timeout; failed or
+ * timed-out workers are reported in the {@link FinalResponse} without discarding
+ * the responses of the other workers.
+ * <p/>
+ * {@link #processStreaming(String)} streams the orchestrator response and starts
+ * every worker as soon as its task has been parsed, so the workers overlap with
+ * the orchestrator's own generation.
+ * <p/>
+ * Tasks may depend on other tasks through {@link Task#dependsOn()}. Every task
+ * starts as soon as its dependencies have completed and receives their outputs,
+ * so independent tasks run in parallel and dependent ones in waves.
+ * <p/>
+ * With a {@link WorkerModelSelector}, every worker runs on the cheapest suitable
+ * model of a pool and falls back to the strong model when its output fails the
+ * quality gate.
+ * <p/>
+ * With an {@link ExecutionJournal}, a task processed with a run id records the
+ * orchestrator plan and every worker output, so an interrupted run restarted with
+ * the same run id replays them and only runs the missing workers.
  * 
  * @author Christian Tzolov
  * @see <a href=
@@ -66,9 +103,42 @@ import org.springframework.util.Assert;
  */
 public class OrchestratorWorkers {
 
+	/**
+	 * Default maximum number of concurrent worker calls of an instance.
+	 */
+	public static final int DEFAULT_MAX_CONCURRENT_WORKERS = 8;
+
+	/**
+	 * Default timeout of a single worker call.
+	 */
+	public static final Duration DEFAULT_WORKER_TIMEOUT = Duration.ofMinutes(2);
+
+	/**
+	 * JVM-wide virtual thread executor used when no executor is provided.
+	 */
+	private static final ExecutorService SHARED_EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+
+	/**
+	 * Rough number of characters per token, used when a model reports no usage.
+	 */
+	private static final int CHARS_PER_TOKEN = 4;
+
+	/**
+	 * Journal step of the orchestrator response.
+	 */
+	private static final String ORCHESTRATOR_STEP = "orchestrator";
+
 	private final ChatClient chatClient;
 	private final String orchestratorPrompt;
 	private final String workerPrompt;
+	private final Executor executor;
+	private final Semaphore workerPermits;
+	private final Duration workerTimeout;
+	private final WorkerModelSelector modelSelector;
+	private final ExecutionJournal journal;
+	private final BeanOutputConverter<OrchestratorResponse> responseConverter = new BeanOutputConverter<>(
+			OrchestratorResponse.class);
+	private final BeanOutputConverter<Task> taskConverter = new BeanOutputConverter<>(Task.class);
 
 	public static final String DEFAULT_ORCHESTRATOR_PROMPT = """
 			Analyze this task and break it down into 2-3 distinct approaches:
@@ -81,15 +151,21 @@ public class OrchestratorWorkers {
 			             Focus on how each approach serves different aspects of the task.",
 			"tasks": [
 				\\{
+				"id": "1",
 				"type": "formal",
-				"description": "Write a precise, technical version that emphasizes specifications"
+				"description": "Write a precise, technical version that emphasizes specifications",
+				"dependsOn": []
 				\\},
 				\\{
+				"id": "2",
 				"type": "conversational",
-				"description": "Write an engaging, friendly version that connects with readers"
+				"description": "Write an engaging, friendly version that connects with readers",
+				"dependsOn": []
 				\\}
 			]
 			\\}
+
+			Only list ids in "dependsOn" when a task needs the results of those tasks as input.
 			""";
 
 	public static final String DEFAULT_WORKER_PROMPT = """
@@ -99,6 +175,15 @@ public class OrchestratorWorkers {
 			Guidelines: {task_description}
 			""";
 
+	/**
+	 * Appended to the worker prompt of a task with dependencies.
+	 */
+	private static final String UPSTREAM_OUTPUTS_PROMPT = """
+
+			Results of the tasks this task builds on:
+			{upstream_outputs}
+			""";
+
 	/**
 	 * Represents a subtask identified by the orchestrator that needs to be executed
 	 * by a worker.
@@ -106,8 +191,22 @@ public class OrchestratorWorkers {
 	 * @param type        The type or category of the task (e.g., "formal",
 	 *                    "conversational")
 	 * @param description Detailed description of what the worker should accomplish
+	 * @param id          Optional id referenced by other tasks' dependencies;
+	 *                    defaults to the task's one-based position prefixed with
+	 *                    {@code #}, e.g. {@code #3}
+	 * @param dependsOn   Ids of the tasks whose outputs this task needs as input;
+	 *                    empty for independent tasks
 	 */
-	public static record Task(String type, String description) {
+	public static record Task(String type, String description, String id, List<String> dependsOn) {
+
+		public Task {
+			dependsOn = (dependsOn != null) ? List.copyOf(dependsOn) : List.of();
+		}
+
+		public Task(String type, String description) {
+			this(type, description, null, List.of());
+		}
+
 	}
 
 	/**
@@ -129,9 +228,26 @@ public class OrchestratorWorkers {
 	 * @param analysis        The orchestrator's understanding and breakdown of the
 	 *                        original task
 	 * @param workerResponses List of responses from workers, each handling a
-	 *                        specific subtask
+	 *                        specific subtask, in task order; {@code null} for
+	 *                        failed workers
+	 * @param failures        The workers that failed or timed out
 	 */
-	public static record FinalResponse(String analysis, List<String> workerResponses) {
+	public static record FinalResponse(String analysis, List<String> workerResponses, List<WorkerFailure> failures) {
+
+		public FinalResponse(String analysis, List<String> workerResponses) {
+			this(analysis, workerResponses, List.of());
+		}
+
+	}
+
+	/**
+	 * A worker that failed or timed out.
+	 * 
+	 * @param index The position of the task in the orchestrator's task list
+	 * @param task  The task of the worker
+	 * @param error Description of the failure
+	 */
+	public static record WorkerFailure(int index, Task task, String error) {
 	}
 
 	/**
@@ -151,52 +267,465 @@ public class OrchestratorWorkers {
 	 * @param workerPrompt       Custom prompt for the worker LLMs
 	 */
 	public OrchestratorWorkers(ChatClient chatClient, String orchestratorPrompt, String workerPrompt) {
+		this(chatClient, orchestratorPrompt, workerPrompt, SHARED_EXECUTOR, DEFAULT_MAX_CONCURRENT_WORKERS,
+				DEFAULT_WORKER_TIMEOUT);
+	}
+
+	/**
+	 * Creates a new OrchestratorWorkers with custom prompts and worker concurrency.
+	 * 
+	 * @param chatClient           The ChatClient to use for LLM interactions
+	 * @param orchestratorPrompt   Custom prompt for the orchestrator LLM
+	 * @param workerPrompt         Custom prompt for the worker LLMs
+	 * @param executor             The executor running the worker calls
+	 * @param maxConcurrentWorkers The maximum number of concurrent worker calls
+	 *                             of this instance
+	 * @param workerTimeout        The timeout of a single worker call, measured
+	 *                             from the moment it acquires its permit, so
+	 *                             waiting for a permit is not included
+	 */
+	public OrchestratorWorkers(ChatClient chatClient, String orchestratorPrompt, String workerPrompt,
+			Executor executor, int maxConcurrentWorkers, Duration workerTimeout) {
+		this(chatClient, orchestratorPrompt, workerPrompt, executor, maxConcurrentWorkers, workerTimeout, null);
+	}
+
+	/**
+	 * Creates a new OrchestratorWorkers whose workers run on models selected per
+	 * task.
+	 * 
+	 * @param chatClient           The ChatClient to use for the orchestrator, and
+	 *                             for the workers if no model selector is given
+	 * @param orchestratorPrompt   Custom prompt for the orchestrator LLM
+	 * @param workerPrompt         Custom prompt for the worker LLMs
+	 * @param executor             The executor running the worker calls
+	 * @param maxConcurrentWorkers The maximum number of concurrent worker calls
+	 *                             of this instance
+	 * @param workerTimeout        The timeout of a single worker, measured from
+	 *                             the moment it acquires its permit, so waiting
+	 *                             for a permit is not included, and covering a
+	 *                             fallback to the strong model
+	 * @param modelSelector        The selector of the worker models, or
+	 *                             {@code null} to run all workers on the
+	 *                             ChatClient
+	 */
+	public OrchestratorWorkers(ChatClient chatClient, String orchestratorPrompt, String workerPrompt,
+			Executor executor, int maxConcurrentWorkers, Duration workerTimeout, WorkerModelSelector modelSelector) {
+		this(chatClient, orchestratorPrompt, workerPrompt, executor, maxConcurrentWorkers, workerTimeout,
+				modelSelector, null);
+	}
+
+	/**
+	 * Creates a new OrchestratorWorkers whose runs can be resumed from an
+	 * execution journal.
+	 * 
+	 * @param chatClient           The ChatClient to use for the orchestrator, and
+	 *                             for the workers if no model selector is given
+	 * @param orchestratorPrompt   Custom prompt for the orchestrator LLM
+	 * @param workerPrompt         Custom prompt for the worker LLMs
+	 * @param executor             The executor running the worker calls
+	 * @param maxConcurrentWorkers The maximum number of concurrent worker calls
+	 *                             of this instance
+	 * @param workerTimeout        The timeout of a single worker, measured from
+	 *                             the moment it acquires its permit, so waiting
+	 *                             for a permit is not included, and covering a
+	 *                             fallback to the strong model
+	 * @param modelSelector        The selector of the worker models, or
+	 *                             {@code null} to run all workers on the
+	 *                             ChatClient
+	 * @param journal              The journal recording the orchestrator plan and
+	 *                             worker outputs of the runs processed with a run
+	 *                             id, or {@code null}
+	 */
+	public OrchestratorWorkers(ChatClient chatClient, String orchestratorPrompt, String workerPrompt,
+			Executor executor, int maxConcurrentWorkers, Duration workerTimeout, WorkerModelSelector modelSelector,
+			ExecutionJournal journal) {
 		Assert.notNull(chatClient, "ChatClient must not be null");
 		Assert.hasText(orchestratorPrompt, "Orchestrator prompt must not be empty");
 		Assert.hasText(workerPrompt, "Worker prompt must not be empty");
+		Assert.notNull(executor, "Executor must not be null");
+		Assert.isTrue(maxConcurrentWorkers > 0, "Max concurrent workers must be greater than 0");
+		Assert.isTrue(workerTimeout != null && !workerTimeout.isNegative() && !workerTimeout.isZero(),
+				"Worker timeout must be positive");
 
 		this.chatClient = chatClient;
 		this.orchestratorPrompt = orchestratorPrompt;
 		this.workerPrompt = workerPrompt;
+		this.executor = executor;
+		this.workerPermits = new Semaphore(maxConcurrentWorkers, true);
+		this.workerTimeout = workerTimeout;
+		this.modelSelector = modelSelector;
+		this.journal = journal;
 	}
 
 	/**
 	 * Processes a task using the orchestrator-workers pattern.
 	 * First, the orchestrator analyzes the task and breaks it down into subtasks.
-	 * Then, workers execute each subtask in parallel.
-	 * Finally, the results are combined into a single response.
+	 * Then, workers execute each subtask in parallel, bounded by the concurrency
+	 * limit and the worker timeout. A subtask with dependencies starts once they
+	 * have completed and receives their outputs; it is skipped if one of them
+	 * fails.
+	 * Finally, the results are combined into a single response in task order.
+	 * A failed or timed-out worker leaves a {@code null} response and is reported
+	 * in {@link FinalResponse#failures()}.
 	 * 
 	 * @param taskDescription Description of the task to be processed
 	 * @return WorkerResponse containing the orchestrator's analysis and combined
 	 *         worker outputs
-	 * @throws IllegalArgumentException if taskDescription is null or empty
+	 * @throws IllegalArgumentException if taskDescription is null or empty, or if
+	 *                                  the task dependencies form a cycle
 	 */
-	@SuppressWarnings("null")
 	public FinalResponse process(String taskDescription) {
+		return process(taskDescription, null);
+	}
+
+	/**
+	 * Processes a task like {@link #process(String)} as a resumable run. The
+	 * orchestrator plan and the output of every worker are recorded in the
+	 * execution journal under the run id. Restarted with the same run id and
+	 * task, the run replays the recorded plan and worker outputs and only runs the
+	 * workers that had not completed.
+	 * 
+	 * @param taskDescription Description of the task to be processed
+	 * @param runId           The id of the run in the execution journal, or
+	 *                        {@code null} to run without the journal
+	 * @return WorkerResponse containing the orchestrator's analysis and combined
+	 *         worker outputs
+	 * @throws IllegalArgumentException if taskDescription is null or empty, or if
+	 *                                  the task dependencies form a cycle
+	 */
+	@SuppressWarnings("null")
+	public FinalResponse process(String taskDescription, String runId) {
 		Assert.hasText(taskDescription, "Task description must not be empty");
+		Assert.isTrue(runId == null || this.journal != null, "A run id requires an execution journal");
 
 		// Step 1: Get orchestrator response
-		OrchestratorResponse orchestratorResponse = this.chatClient.prompt()
-				.user(u -> u.text(this.orchestratorPrompt)
-						.param("task", taskDescription))
-				.call()
-				.entity(OrchestratorResponse.class);
+		OrchestratorResponse orchestratorResponse;
+		if (runId == null) {
+			orchestratorResponse = this.chatClient.prompt()
+					.user(u -> u.text(this.orchestratorPrompt)
+							.param("task", taskDescription))
+					.call()
+					.entity(OrchestratorResponse.class);
+		} else {
+			// The raw response is journaled, so it is requested with the format
+			// instructions .entity(...) would add and converted here.
+			String journalInput = this.orchestratorPrompt + '\0' + taskDescription;
+			String json = this.journal.replay(runId, ORCHESTRATOR_STEP, journalInput);
+			if (json == null) {
+				json = this.chatClient.prompt()
+						.user(u -> u.text(this.orchestratorPrompt + "\n{format}")
+								.param("task", taskDescription)
+								.param("format", this.responseConverter.getFormat()))
+						.call()
+						.content();
+				orchestratorResponse = this.responseConverter.convert(json);
+				this.journal.record(runId, ORCHESTRATOR_STEP, journalInput, json);
+			} else {
+				orchestratorResponse = this.responseConverter.convert(json);
+			}
+		}
 
 		System.out.println(String.format("\n=== ORCHESTRATOR OUTPUT ===\nANALYSIS: %s\n\nTASKS: %s\n",
 				orchestratorResponse.analysis(), orchestratorResponse.tasks()));
 
-		// Step 2: Process each task
-		List<String> workerResponses = orchestratorResponse.tasks().stream().map(task -> this.chatClient.prompt()
-				.user(u -> u.text(this.workerPrompt)
+		// Step 2: Process the tasks concurrently, respecting their dependencies
+		TaskGraph graph = newTaskGraph(taskDescription, runId);
+		try {
+			orchestratorResponse.tasks().forEach(graph::add);
+			graph.close();
+		} catch (RuntimeException e) {
+			graph.cancel();
+			throw e;
+		}
+
+		// Step 3: Collect the responses in task order
+		return collect(orchestratorResponse.analysis(), graph);
+	}
+
+	/**
+	 * Processes a task like {@link #process(String)}, but streams the orchestrator
+	 * response and dispatches every worker as soon as its task has been parsed from
+	 * the partial response. Worker execution overlaps with the generation of the
+	 * remaining tasks, which removes most of the orchestrator latency from the
+	 * critical path.
+	 * 
+	 * <p>
+	 * The orchestrator prompt must describe the JSON format of the response, as the
+	 * default prompt does, since no output format instructions are added to a
+	 * streamed call.
+	 * 
+	 * @param taskDescription Description of the task to be processed
+	 * @return FinalResponse containing the orchestrator's analysis and combined
+	 *         worker outputs
+	 * @throws IllegalStateException if the streamed response contains no tasks
+	 */
+	public FinalResponse processStreaming(String taskDescription) {
+		return processStreaming(taskDescription, null);
+	}
+
+	/**
+	 * Processes a task like {@link #processStreaming(String)} as a resumable run,
+	 * recording the orchestrator response and the output of every worker in the
+	 * execution journal under the run id. Restarted with the same run id and task,
+	 * the run replays the recorded response instead of streaming it, and only runs
+	 * the workers that had not completed.
+	 * 
+	 * @param taskDescription Description of the task to be processed
+	 * @param runId           The id of the run in the execution journal, or
+	 *                        {@code null} to run without the journal
+	 * @return FinalResponse containing the orchestrator's analysis and combined
+	 *         worker outputs
+	 * @throws IllegalStateException if the streamed response contains no tasks
+	 */
+	public FinalResponse processStreaming(String taskDescription, String runId) {
+		Assert.hasText(taskDescription, "Task description must not be empty");
+		Assert.isTrue(runId == null || this.journal != null, "A run id requires an execution journal");
+
+		String journalInput = this.orchestratorPrompt + '\0' + taskDescription;
+		String recorded = (runId != null) ? this.journal.replay(runId, ORCHESTRATOR_STEP, journalInput) : null;
+		StringBuilder response = new StringBuilder();
+
+		TaskGraph graph = newTaskGraph(taskDescription, runId);
+		OrchestratorStreamParser parser = new OrchestratorStreamParser(taskJson -> {
+			Task task = this.taskConverter.convert(taskJson);
+			graph.add(task);
+			System.out.println(String.format("Dispatched task %s: %s", graph.tasks().size(), task.type()));
+		});
+
+		// Step 1: Stream the orchestrator response, dispatching workers on the fly
+		try {
+			if (recorded != null) {
+				parser.accept(recorded);
+			} else {
+				for (String chunk : this.chatClient.prompt()
+						.user(u -> u.text(this.orchestratorPrompt)
+								.param("task", taskDescription))
+						.stream()
+						.content()
+						.toIterable()) {
+					parser.accept(chunk);
+					response.append(chunk);
+				}
+			}
+			graph.close();
+		} catch (RuntimeException e) {
+			graph.cancel();
+			throw e;
+		}
+
+		List<Task> tasks = graph.tasks();
+		if (tasks.isEmpty()) {
+			throw new IllegalStateException("The orchestrator response contains no tasks");
+		}
+		if (runId != null && recorded == null) {
+			this.journal.record(runId, ORCHESTRATOR_STEP, journalInput, response.toString());
+		}
+
+		System.out.println(String.format("\n=== ORCHESTRATOR OUTPUT ===\nANALYSIS: %s\n\nTASKS: %s\n",
+				parser.analysis(), tasks));
+
+		// Step 2: Collect the responses in task order
+		return collect(parser.analysis(), graph);
+	}
+
+	private TaskGraph newTaskGraph(String taskDescription, String runId) {
+		return new TaskGraph(this.executor,
+				(task, upstreamOutputs) -> (runId != null)
+						? runJournaledWorker(runId, taskDescription, task, upstreamOutputs)
+						: runWorker(taskDescription, task, upstreamOutputs),
+				"Timed out after " + this.workerTimeout);
+	}
+
+	/**
+	 * Waits for all tasks of the graph and combines their responses in task order.
+	 */
+	private FinalResponse collect(String analysis, TaskGraph graph) {
+		try {
+			graph.await();
+		} catch (InterruptedException e) {
+			graph.cancel();
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for the workers", e);
+		}
+
+		List<Task> tasks = graph.tasks();
+		List<String> workerResponses = graph.outputs();
+		List<WorkerFailure> failures = new ArrayList<>();
+		graph.errors().forEach((index, error) -> failures.add(new WorkerFailure(index, tasks.get(index), error)));
+
+		System.out.println("\n=== WORKER OUTPUT ===\n" + workerResponses);
+		if (!failures.isEmpty()) {
+			System.out.println("\n=== FAILED WORKERS ===\n" + failures);
+		}
+
+		return new FinalResponse(analysis, workerResponses, failures);
+	}
+
+	/**
+	 * Replays the recorded output of a worker, or runs the worker and records its
+	 * output. Replayed workers take no permit.
+	 */
+	private String runJournaledWorker(String runId, String taskDescription, Task task,
+			Map<String, String> upstreamOutputs) throws Exception {
+		String journalStep = "task:" + ((task.id() != null && !task.id().isBlank()) ? task.id()
+				: task.type() + '/' + task.description());
+		StringBuilder journalInput = new StringBuilder(this.workerPrompt).append('\0')
+			.append(taskDescription).append('\0')
+			.append(task.type()).append('\0')
+			.append(task.description());
+		upstreamOutputs.forEach((id, output) -> journalInput.append('\0').append(id).append('\0').append(output));
+
+		String output = this.journal.replay(runId, journalStep, journalInput.toString());
+		if (output != null) {
+			return output;
+		}
+		output = runWorker(taskDescription, task, upstreamOutputs);
+		if (output != null) {
+			this.journal.record(runId, journalStep, journalInput.toString(), output);
+		}
+		return output;
+	}
+
+	/**
+	 * Runs a worker call on the calling thread once a permit is available. The
+	 * worker timeout starts when the permit is acquired, so waiting for a permit
+	 * does not count against it. When the timeout expires, the call is interrupted
+	 * and the worker fails with a {@link TimeoutException}.
+	 */
+	private String runWorker(String taskDescription, Task task, Map<String, String> upstreamOutputs)
+			throws Exception {
+		this.workerPermits.acquire();
+		try (WorkerDeadline deadline = new WorkerDeadline(this.workerTimeout)) {
+			try {
+				return callWorker(deadline, taskDescription, task, upstreamOutputs);
+			} catch (RuntimeException e) {
+				if (deadline.expired()) {
+					TimeoutException timeout = new TimeoutException("Timed out after " + this.workerTimeout);
+					timeout.initCause(e);
+					throw timeout;
+				}
+				throw e;
+			}
+		} finally {
+			this.workerPermits.release();
+		}
+	}
+
+	/**
+	 * Runs a worker on the selected model, falling back to the strong model if the
+	 * call fails or its output fails the quality gate.
+	 */
+	private String callWorker(WorkerDeadline deadline, String taskDescription, Task task,
+			Map<String, String> upstreamOutputs) {
+		if (this.modelSelector == null) {
+			return workerRequest(this.chatClient, taskDescription, task, upstreamOutputs).call().content();
+		}
+
+		WorkerModel model = this.modelSelector.select(task);
+		WorkerModel strongModel = this.modelSelector.strongModel();
+		if (model != strongModel) {
+			try {
+				String output = callModel(model, taskDescription, task, upstreamOutputs);
+				if (this.modelSelector.passes(task, output)) {
+					return output;
+				}
+				System.out.println(String.format("Output of %s failed the quality gate, falling back to %s",
+						model.name(), strongModel.name()));
+			} catch (RuntimeException e) {
+				if (deadline.expired()) {
+					// Timed out: there is no time left for the fallback.
+					throw e;
+				}
+				System.out.println(String.format("Call to %s failed, falling back to %s: %s", model.name(),
+						strongModel.name(), e.getMessage()));
+			}
+		}
+		return callModel(strongModel, taskDescription, task, upstreamOutputs);
+	}
+
+	/**
+	 * Calls a worker model and records its latency and token usage with the model
+	 * selector.
+	 */
+	private String callModel(WorkerModel model, String taskDescription, Task task,
+			Map<String, String> upstreamOutputs) {
+		long start = System.nanoTime();
+		ChatResponse response = workerRequest(model.chatClient(), taskDescription, task, upstreamOutputs)
+				.call()
+				.chatResponse();
+		long latencyNanos = System.nanoTime() - start;
+
+		String output = (response != null && response.getResult() != null)
+				? response.getResult().getOutput().getText()
+				: null;
+		Usage usage = (response != null && response.getMetadata() != null) ? response.getMetadata().getUsage()
+				: null;
+		int outputTokens = (usage != null && usage.getCompletionTokens() != null) ? usage.getCompletionTokens()
+				: (output != null) ? output.length() / CHARS_PER_TOKEN : 0;
+		int totalTokens = (usage != null && usage.getTotalTokens() != null) ? usage.getTotalTokens() : outputTokens;
+		this.modelSelector.record(model, task, latencyNanos, totalTokens, outputTokens);
+		return output;
+	}
+
+	private ChatClient.ChatClientRequestSpec workerRequest(ChatClient workerClient, String taskDescription, Task task,
+			Map<String, String> upstreamOutputs) {
+		StringBuilder upstream = new StringBuilder();
+		upstreamOutputs.forEach((id, output) -> upstream.append(String.format("[%s]%n%s%n%n", id, output)));
+
+		return workerClient.prompt()
+				.user(u -> u.text(upstreamOutputs.isEmpty() ? this.workerPrompt
+						: this.workerPrompt + UPSTREAM_OUTPUTS_PROMPT)
 						.param("original_task", taskDescription)
 						.param("task_type", task.type())
-						.param("task_description", task.description()))
-				.call()
-				.content()).toList();
+						.param("task_description", task.description())
+						.param("upstream_outputs", upstream.toString()));
+	}
 
-		System.out.println("\n=== WORKER OUTPUT ===\n" + workerResponses);
+	/**
+	 * Interrupts the thread running a worker once the worker timeout has passed
+	 * since the deadline was created. Closing the deadline disarms it and clears an
+	 * interrupt it has delivered, so the executor thread is not left interrupted.
+	 */
+	private static final class WorkerDeadline implements AutoCloseable {
+
+		private final Thread thread = Thread.currentThread();
+
+		private final CompletableFuture<Void> timer = new CompletableFuture<>();
+
+		private boolean closed;
+
+		private boolean expired;
+
+		WorkerDeadline(Duration timeout) {
+			this.timer.orTimeout(timeout.toNanos(), TimeUnit.NANOSECONDS).whenComplete((result, error) -> {
+				if (error instanceof TimeoutException) {
+					expire();
+				}
+			});
+		}
+
+		private synchronized void expire() {
+			if (!this.closed) {
+				this.expired = true;
+				this.thread.interrupt();
+			}
+		}
+
+		synchronized boolean expired() {
+			return this.expired;
+		}
+
+		@Override
+		public void close() {
+			synchronized (this) {
+				this.closed = true;
+			}
+			this.timer.complete(null);
+			if (expired()) {
+				Thread.interrupted();
+			}
+		}
 
-		return new FinalResponse(orchestratorResponse.analysis(), workerResponses);
 	}
 
 }
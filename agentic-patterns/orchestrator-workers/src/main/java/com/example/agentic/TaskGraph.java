@@ -0,0 +1,350 @@
+/*
+* Copyright 2024 - 2024 the original author or authors.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* https://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.example.agentic;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeoutException;
+
+import com.example.agentic.OrchestratorWorkers.Task;
+
+import org.springframework.util.Assert;
+
+/**
+ * Dependency-aware executor of the tasks of an {@link OrchestratorWorkers} run.
+ *
+ * <p>
+ * Tasks form a directed acyclic graph through their {@link Task#dependsOn()} ids. Every
+ * task whose dependencies have completed is started immediately, so independent tasks
+ * run in parallel and each dependent task starts as soon as its last input resolves.
+ * A task receives the outputs of its dependencies. If a dependency fails, the
+ * dependent task is skipped and reported as failed.
+ *
+ * <p>
+ * Tasks can be added while earlier tasks are already running, which lets a streaming
+ * orchestrator dispatch tasks as they are parsed. Dependencies on tasks that have not
+ * been added yet simply wait. Once {@link #close()} declares that no more tasks follow,
+ * unknown dependencies fail their tasks and cycles are rejected.
+ *
+ * @author Christian Tzolov
+ * @see OrchestratorWorkers
+ */
+final class TaskGraph {
+
+	/**
+	 * Runs the worker of a single task.
+	 */
+	@FunctionalInterface
+	interface Worker {
+
+		/**
+		 * @param task            the task to run
+		 * @param upstreamOutputs the outputs of the task's dependencies by task id, in
+		 *                        the order of {@link Task#dependsOn()}
+		 * @return the output of the task
+		 */
+		String run(Task task, Map<String, String> upstreamOutputs) throws Exception;
+
+	}
+
+	private enum State {
+
+		PENDING, RUNNING, SUCCEEDED, FAILED
+
+	}
+
+	private final Executor executor;
+
+	private final Worker worker;
+
+	private final String timeoutDescription;
+
+	private final List<Task> tasks = new ArrayList<>();
+
+	private final List<String> ids = new ArrayList<>();
+
+	private final Map<String, Integer> indexById = new HashMap<>();
+
+	private final List<State> states = new ArrayList<>();
+
+	private final List<String> outputs = new ArrayList<>();
+
+	private final List<String> errors = new ArrayList<>();
+
+	private final Map<Integer, FutureTask<String>> running = new HashMap<>();
+
+	private boolean closed;
+
+	/**
+	 * @param executor           the executor running the workers
+	 * @param worker             the worker running a single task
+	 * @param timeoutDescription the error reported for a worker that timed out
+	 */
+	TaskGraph(Executor executor, Worker worker, String timeoutDescription) {
+		this.executor = executor;
+		this.worker = worker;
+		this.timeoutDescription = timeoutDescription;
+	}
+
+	/**
+	 * Adds a task and starts it if its dependencies have completed. A task without an
+	 * id gets its one-based position prefixed with {@code #} as id, e.g. {@code #3}, so
+	 * that it cannot collide with the explicit id {@code 3} of another task.
+	 *
+	 * @param task the task to add
+	 * @throws IllegalArgumentException if the id of the task is already used
+	 */
+	synchronized void add(Task task) {
+		Assert.notNull(task, "Task must not be null");
+		Assert.state(!this.closed, "No tasks can be added to a closed task graph");
+
+		int index = this.tasks.size();
+		String id = (task.id() != null && !task.id().isBlank()) ? task.id() : "#" + (index + 1);
+		if (this.indexById.containsKey(id)) {
+			throw new IllegalArgumentException("Duplicate task id '" + id + "'");
+		}
+		this.tasks.add(task);
+		this.ids.add(id);
+		this.indexById.put(id, index);
+		this.states.add(State.PENDING);
+		this.outputs.add(null);
+		this.errors.add(null);
+		schedule();
+	}
+
+	/**
+	 * Declares that no more tasks follow. Tasks depending on unknown ids fail.
+	 *
+	 * @throws IllegalArgumentException if the dependencies of the tasks form a cycle;
+	 *                                  running tasks are cancelled
+	 */
+	synchronized void close() {
+		this.closed = true;
+		List<String> cycle = findCycle();
+		if (cycle != null) {
+			cancel();
+			throw new IllegalArgumentException("Cyclic task dependencies: " + String.join(" -> ", cycle));
+		}
+		schedule();
+	}
+
+	/**
+	 * Waits until every task has succeeded or failed. Must be called after
+	 * {@link #close()}.
+	 *
+	 * @throws InterruptedException if the calling thread is interrupted while waiting
+	 */
+	synchronized void await() throws InterruptedException {
+		Assert.state(this.closed, "The task graph must be closed before awaiting it");
+		while (this.states.stream().anyMatch(state -> state == State.PENDING || state == State.RUNNING)) {
+			wait();
+		}
+	}
+
+	/**
+	 * Cancels the running tasks and fails the pending ones.
+	 */
+	synchronized void cancel() {
+		new ArrayList<>(this.running.values()).forEach(worker -> worker.cancel(true));
+		for (int i = 0; i < this.states.size(); i++) {
+			if (this.states.get(i) == State.PENDING) {
+				fail(i, "Cancelled");
+			}
+		}
+	}
+
+	/**
+	 * @return the tasks in the order they were added
+	 */
+	synchronized List<Task> tasks() {
+		return List.copyOf(this.tasks);
+	}
+
+	/**
+	 * @return the outputs in task order, {@code null} for failed tasks
+	 */
+	synchronized List<String> outputs() {
+		return new ArrayList<>(this.outputs);
+	}
+
+	/**
+	 * @return the errors of the failed tasks by task index, in task order
+	 */
+	synchronized Map<Integer, String> errors() {
+		Map<Integer, String> errors = new LinkedHashMap<>();
+		for (int i = 0; i < this.errors.size(); i++) {
+			if (this.errors.get(i) != null) {
+				errors.put(i, this.errors.get(i));
+			}
+		}
+		return errors;
+	}
+
+	/**
+	 * Starts every pending task whose dependencies have succeeded and fails every
+	 * pending task with a failed or, once closed, unknown dependency.
+	 */
+	private void schedule() {
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int i = 0; i < this.tasks.size(); i++) {
+				if (this.states.get(i) != State.PENDING) {
+					continue;
+				}
+				String blocker = blocker(i);
+				if (blocker == null) {
+					if (!start(i)) {
+						changed = true;
+					}
+				} else if (!blocker.isEmpty()) {
+					fail(i, blocker);
+					changed = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return {@code null} if the task is ready, an empty string if it must wait, or
+	 *         the reason why it can never run
+	 */
+	private String blocker(int index) {
+		String blocker = null;
+		for (String dependency : this.tasks.get(index).dependsOn()) {
+			Integer dependencyIndex = this.indexById.get(dependency);
+			if (dependencyIndex == null) {
+				if (this.closed) {
+					return "Unknown dependency '" + dependency + "'";
+				}
+				blocker = "";
+			} else if (this.states.get(dependencyIndex) == State.FAILED) {
+				return "Skipped: dependency '" + dependency + "' failed";
+			} else if (this.states.get(dependencyIndex) != State.SUCCEEDED) {
+				blocker = "";
+			}
+		}
+		return blocker;
+	}
+
+	/**
+	 * Starts the task on the executor, or fails it if the executor rejects it.
+	 *
+	 * @return whether the task was started
+	 */
+	private boolean start(int index) {
+		Task task = this.tasks.get(index);
+		Map<String, String> upstreamOutputs = new LinkedHashMap<>();
+		for (String dependency : task.dependsOn()) {
+			upstreamOutputs.put(dependency, this.outputs.get(this.indexById.get(dependency)));
+		}
+
+		FutureTask<String> future = new FutureTask<>(() -> this.worker.run(task, upstreamOutputs)) {
+
+			@Override
+			protected void done() {
+				completed(index, this);
+			}
+
+		};
+		this.states.set(index, State.RUNNING);
+		this.running.put(index, future);
+		try {
+			this.executor.execute(future);
+			return true;
+		} catch (RuntimeException e) {
+			this.running.remove(index);
+			fail(index, "Not started: " + e);
+			return false;
+		}
+	}
+
+	private synchronized void completed(int index, FutureTask<String> future) {
+		this.running.remove(index);
+		if (future.isCancelled()) {
+			fail(index, "Cancelled");
+		} else {
+			try {
+				this.outputs.set(index, future.get());
+				this.states.set(index, State.SUCCEEDED);
+			} catch (ExecutionException e) {
+				fail(index, (e.getCause() instanceof TimeoutException) ? this.timeoutDescription
+						: String.valueOf(e.getCause()));
+			} catch (InterruptedException e) {
+				// The future is done, so get() does not block.
+				Thread.currentThread().interrupt();
+				fail(index, "Interrupted");
+			}
+		}
+		schedule();
+		notifyAll();
+	}
+
+	private void fail(int index, String error) {
+		this.states.set(index, State.FAILED);
+		this.errors.set(index, error);
+		notifyAll();
+	}
+
+	/**
+	 * @return the ids of a dependency cycle, with the first id repeated at the end, or
+	 *         {@code null} if the graph is acyclic
+	 */
+	private List<String> findCycle() {
+		Set<Integer> visited = new HashSet<>();
+		for (int i = 0; i < this.tasks.size(); i++) {
+			List<String> cycle = findCycle(i, visited, new ArrayList<>());
+			if (cycle != null) {
+				return cycle;
+			}
+		}
+		return null;
+	}
+
+	private List<String> findCycle(int index, Set<Integer> visited, List<Integer> path) {
+		int position = path.indexOf(index);
+		if (position >= 0) {
+			List<String> cycle = new ArrayList<>();
+			path.subList(position, path.size()).forEach(i -> cycle.add(this.ids.get(i)));
+			cycle.add(this.ids.get(index));
+			return cycle;
+		}
+		if (!visited.add(index)) {
+			return null;
+		}
+		path.add(index);
+		for (String dependency : this.tasks.get(index).dependsOn()) {
+			Integer dependencyIndex = this.indexById.get(dependency);
+			if (dependencyIndex != null) {
+				List<String> cycle = findCycle(dependencyIndex, visited, path);
+				if (cycle != null) {
+					return cycle;
+				}
+			}
+		}
+		path.remove(path.size() - 1);
+		return null;
+	}
+
+}
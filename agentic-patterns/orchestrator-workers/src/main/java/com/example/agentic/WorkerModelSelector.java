@@ -0,0 +1,299 @@
+/*
+* Copyright 2024 - 2024 the original author or authors.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* https://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.example.agentic;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiPredicate;
+
+import com.example.agentic.OrchestratorWorkers.Task;
+
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.util.Assert;
+
+/**
+ * Picks the {@link ChatClient} of every worker of an {@link OrchestratorWorkers} run
+ * from a pool of models, so cheap and fast models handle simple tasks and the strong
+ * model is reserved for the tasks that need it.
+ *
+ * <p>
+ * A model is eligible for a task if it serves the task's type and its output limit
+ * covers the task's estimated output length. The estimate is the average output of
+ * the completed tasks of the same type. Among the eligible models, the one with the
+ * lowest expected cost wins. The expected cost is the model's price times its
+ * observed prompt and completion tokens per output token, plus its observed latency
+ * per output token weighted by the latency cost per second, both multiplied by the
+ * estimated output length. Until a model has been observed, its tokens and latency
+ * per output token are taken from the average of all calls of the pool, so observed
+ * and unobserved models are compared on the same basis.
+ *
+ * <p>
+ * The output of every model other than the strong one must pass the quality gate;
+ * otherwise, or if the call fails, the task is run again on the strong model.
+ *
+ * @author Christian Tzolov
+ * @see OrchestratorWorkers
+ */
+public class WorkerModelSelector {
+
+	/**
+	 * Output tokens assumed for a task type before any task of the type completed.
+	 */
+	private static final int DEFAULT_OUTPUT_TOKENS = 500;
+
+	/**
+	 * Weight of the latest observation in the moving averages.
+	 */
+	private static final double SMOOTHING = 0.2;
+
+	private final List<WorkerModel> models;
+
+	private final WorkerModel strongModel;
+
+	private final BiPredicate<Task, String> qualityGate;
+
+	private final double latencyCostPerSecond;
+
+	private final Map<String, ModelStats> modelStats = new HashMap<>();
+
+	/**
+	 * Averages of all calls of the pool, standing in for unobserved models.
+	 */
+	private final ModelStats poolStats = new ModelStats();
+
+	private final Map<String, Double> outputTokensByType = new HashMap<>();
+
+	/**
+	 * A model of the pool.
+	 *
+	 * @param name                  the name of the model
+	 * @param chatClient            the client calling the model
+	 * @param costPerThousandTokens the price of a thousand prompt and completion
+	 *                              tokens
+	 * @param taskTypes             the task types the model serves, or empty for all
+	 *                              types
+	 * @param maxOutputTokens       the largest estimated output the model is trusted
+	 *                              with
+	 */
+	public record WorkerModel(String name, ChatClient chatClient, double costPerThousandTokens, Set<String> taskTypes,
+			int maxOutputTokens) {
+
+		public WorkerModel {
+			Assert.hasText(name, "Name must not be empty");
+			Assert.notNull(chatClient, "ChatClient must not be null");
+			Assert.isTrue(costPerThousandTokens >= 0, "Cost per thousand tokens must not be negative");
+			Assert.isTrue(maxOutputTokens > 0, "Max output tokens must be greater than 0");
+			taskTypes = (taskTypes != null) ? Set.copyOf(taskTypes) : Set.of();
+		}
+
+		boolean serves(Task task, double estimatedOutputTokens) {
+			return (this.taskTypes.isEmpty() || this.taskTypes.contains(task.type()))
+					&& estimatedOutputTokens <= this.maxOutputTokens;
+		}
+
+	}
+
+	/**
+	 * Observed prompt and completion tokens and latency of calls, per output token.
+	 * Before the first call a single token and no latency are assumed.
+	 */
+	private static final class ModelStats {
+
+		private double tokensPerOutputToken = 1;
+
+		private double secondsPerOutputToken;
+
+		private boolean observed;
+
+		void record(double tokensPerOutputToken, double secondsPerOutputToken) {
+			this.tokensPerOutputToken = average(this.observed, this.tokensPerOutputToken, tokensPerOutputToken);
+			this.secondsPerOutputToken = average(this.observed, this.secondsPerOutputToken, secondsPerOutputToken);
+			this.observed = true;
+		}
+
+	}
+
+	private WorkerModelSelector(List<WorkerModel> models, WorkerModel strongModel,
+			BiPredicate<Task, String> qualityGate, double latencyCostPerSecond) {
+		this.models = List.copyOf(models);
+		this.strongModel = strongModel;
+		this.qualityGate = qualityGate;
+		this.latencyCostPerSecond = latencyCostPerSecond;
+	}
+
+	/**
+	 * Selects the model of a task.
+	 *
+	 * @param task the task to run
+	 * @return the eligible model with the lowest expected cost, or the strong model
+	 *         if no other model is eligible
+	 */
+	public synchronized WorkerModel select(Task task) {
+		double estimatedOutputTokens = estimatedOutputTokens(task);
+		WorkerModel selected = this.strongModel;
+		double selectedCost = expectedCost(this.strongModel, estimatedOutputTokens);
+		for (WorkerModel model : this.models) {
+			if (model.serves(task, estimatedOutputTokens)) {
+				double cost = expectedCost(model, estimatedOutputTokens);
+				if (cost < selectedCost) {
+					selected = model;
+					selectedCost = cost;
+				}
+			}
+		}
+		return selected;
+	}
+
+	/**
+	 * Records a completed worker call.
+	 *
+	 * @param model        the model that ran the task
+	 * @param task         the task
+	 * @param latencyNanos the latency of the call
+	 * @param totalTokens  the prompt and completion tokens of the call
+	 * @param outputTokens the completion tokens of the call
+	 */
+	public synchronized void record(WorkerModel model, Task task, long latencyNanos, int totalTokens,
+			int outputTokens) {
+		int tokens = Math.max(1, outputTokens);
+		double tokensPerOutputToken = Math.max(totalTokens, outputTokens) / (double) tokens;
+		double secondsPerOutputToken = latencyNanos / (double) TimeUnit.SECONDS.toNanos(1) / tokens;
+
+		this.modelStats.computeIfAbsent(model.name(), name -> new ModelStats())
+			.record(tokensPerOutputToken, secondsPerOutputToken);
+		this.poolStats.record(tokensPerOutputToken, secondsPerOutputToken);
+
+		Double typeTokens = this.outputTokensByType.get(task.type());
+		this.outputTokensByType.put(task.type(), average(typeTokens != null, (typeTokens != null) ? typeTokens : 0,
+				outputTokens));
+	}
+
+	/**
+	 * @param task   the task
+	 * @param output the output of a model other than the strong one
+	 * @return whether the output is good enough to skip the strong model
+	 */
+	public boolean passes(Task task, String output) {
+		return output != null && this.qualityGate.test(task, output);
+	}
+
+	/**
+	 * @return the model used when no other model is eligible or passes the quality
+	 *         gate
+	 */
+	public WorkerModel strongModel() {
+		return this.strongModel;
+	}
+
+	/**
+	 * @param task the task
+	 * @return the average output tokens of the completed tasks of the same type
+	 */
+	public synchronized double estimatedOutputTokens(Task task) {
+		return this.outputTokensByType.getOrDefault(task.type(), (double) DEFAULT_OUTPUT_TOKENS);
+	}
+
+	private double expectedCost(WorkerModel model, double estimatedOutputTokens) {
+		ModelStats stats = this.modelStats.getOrDefault(model.name(), this.poolStats);
+		return estimatedOutputTokens * (stats.tokensPerOutputToken * model.costPerThousandTokens() / 1000
+				+ this.latencyCostPerSecond * stats.secondsPerOutputToken);
+	}
+
+	private static double average(boolean observed, double average, double value) {
+		return observed ? (1 - SMOOTHING) * average + SMOOTHING * value : value;
+	}
+
+	/**
+	 * Creates a new Builder for the WorkerModelSelector.
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * Builder class for the WorkerModelSelector.
+	 */
+	public static final class Builder {
+
+		private final List<WorkerModel> models = new ArrayList<>();
+
+		private WorkerModel strongModel;
+
+		private BiPredicate<Task, String> qualityGate = (task, output) -> !output.isBlank();
+
+		private double latencyCostPerSecond = 0;
+
+		private Builder() {
+		}
+
+		/**
+		 * Registers a model serving every task type and output length.
+		 */
+		public Builder model(String name, ChatClient chatClient, double costPerThousandTokens) {
+			return model(name, chatClient, costPerThousandTokens, Set.of(), Integer.MAX_VALUE);
+		}
+
+		/**
+		 * Registers a model serving the given task types up to the given estimated
+		 * output length.
+		 */
+		public Builder model(String name, ChatClient chatClient, double costPerThousandTokens, Set<String> taskTypes,
+				int maxOutputTokens) {
+			this.models.add(new WorkerModel(name, chatClient, costPerThousandTokens, taskTypes, maxOutputTokens));
+			return this;
+		}
+
+		/**
+		 * Sets the strong model, which serves every task and is the fallback of all
+		 * other models.
+		 */
+		public Builder strongModel(String name, ChatClient chatClient, double costPerThousandTokens) {
+			this.strongModel = new WorkerModel(name, chatClient, costPerThousandTokens, Set.of(), Integer.MAX_VALUE);
+			return this;
+		}
+
+		/**
+		 * Sets the check the output of a model other than the strong one must pass.
+		 * By default the output must not be blank.
+		 */
+		public Builder qualityGate(BiPredicate<Task, String> qualityGate) {
+			Assert.notNull(qualityGate, "qualityGate must not be null");
+			this.qualityGate = qualityGate;
+			return this;
+		}
+
+		/**
+		 * Sets the cost attributed to a second of worker latency, trading cost for
+		 * speed. Zero selects by cost alone.
+		 */
+		public Builder latencyCostPerSecond(double latencyCostPerSecond) {
+			Assert.isTrue(latencyCostPerSecond >= 0, "latencyCostPerSecond must not be negative");
+			this.latencyCostPerSecond = latencyCostPerSecond;
+			return this;
+		}
+
+		public WorkerModelSelector build() {
+			Assert.notNull(this.strongModel, "strongModel must be set");
+			return new WorkerModelSelector(this.models, this.strongModel, this.qualityGate, this.latencyCostPerSecond);
+		}
+
+	}
+
+}
@@ -0,0 +1,93 @@
+/*
+* Copyright 2024 - 2024 the original author or authors.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* https://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.example.agentic;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests for {@link ExecutionJournal}.
+ *
+ * @author Christian Tzolov
+ */
+class ExecutionJournalTests {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void replaysRecordedStepsAfterReopening() {
+		Path file = this.directory.resolve("journal.log");
+		try (ExecutionJournal journal = new ExecutionJournal(file)) {
+			journal.record("run-1", "plan", "input\twith tab\nand newline", "plan output");
+			journal.record("run-1", "worker-0", "task", "first output");
+			journal.record("run-1", "worker-0", "task", "second output");
+		}
+
+		try (ExecutionJournal journal = new ExecutionJournal(file)) {
+			assertThat(journal.replay("run-1", "plan", "input\twith tab\nand newline")).isEqualTo("plan output");
+			assertThat(journal.replay("run-1", "worker-0", "task")).isEqualTo("second output");
+			assertThat(journal.replay("run-1", "plan", "changed input")).isNull();
+			assertThat(journal.replay("run-2", "plan", "input\twith tab\nand newline")).isNull();
+			assertThat(journal.completedSteps("run-1")).containsExactlyInAnyOrder("plan", "worker-0");
+		}
+	}
+
+	@Test
+	void discardsATornRecordAtTheEnd() throws IOException {
+		Path file = this.directory.resolve("journal.log");
+		try (ExecutionJournal journal = new ExecutionJournal(file)) {
+			journal.record("run-1", "plan", "input", "plan output");
+		}
+		long completeSize = Files.size(file);
+		Files.writeString(file, "cnVuLTE=\td29ya2Vy", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+		try (ExecutionJournal journal = new ExecutionJournal(file)) {
+			assertThat(Files.size(file)).isEqualTo(completeSize);
+			assertThat(journal.completedSteps("run-1")).containsExactly("plan");
+			journal.record("run-1", "worker-0", "task", "worker output");
+		}
+
+		try (ExecutionJournal journal = new ExecutionJournal(file)) {
+			assertThat(journal.replay("run-1", "plan", "input")).isEqualTo("plan output");
+			assertThat(journal.replay("run-1", "worker-0", "task")).isEqualTo("worker output");
+		}
+	}
+
+	@Test
+	void ignoresCorruptedRecords() throws IOException {
+		Path file = this.directory.resolve("journal.log");
+		Files.writeString(file, "not base64!\tc3RlcA==\tabc\tb3V0cHV0\nincomplete line\n", StandardCharsets.UTF_8);
+
+		try (ExecutionJournal journal = new ExecutionJournal(file)) {
+			assertThat(journal.completedSteps("run-1")).isEmpty();
+			journal.record("run-1", "plan", "input", "plan output");
+		}
+
+		try (ExecutionJournal journal = new ExecutionJournal(file)) {
+			assertThat(journal.replay("run-1", "plan", "input")).isEqualTo("plan output");
+		}
+	}
+
+}
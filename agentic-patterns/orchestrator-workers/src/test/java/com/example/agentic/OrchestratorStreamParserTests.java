@@ -0,0 +1,81 @@
+/*
+* Copyright 2024 - 2024 the original author or authors.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* https://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.example.agentic;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests for {@link OrchestratorStreamParser}.
+ *
+ * @author Christian Tzolov
+ */
+class OrchestratorStreamParserTests {
+
+	private final List<String> tasks = new ArrayList<>();
+
+	private final OrchestratorStreamParser parser = new OrchestratorStreamParser(this.tasks::add);
+
+	@Test
+	void handsOverEveryTaskAsSoonAsItIsComplete() {
+		this.parser.accept("{\"analysis\": \"Two styles\", \"tasks\": [{\"type\": \"formal\", ");
+		assertThat(this.tasks).isEmpty();
+
+		this.parser.accept("\"description\": \"Technical\"}, {\"type\": \"conver");
+		assertThat(this.tasks).containsExactly("{\"type\": \"formal\", \"description\": \"Technical\"}");
+		assertThat(this.parser.isComplete()).isFalse();
+
+		this.parser.accept("sational\", \"description\": \"Friendly\"}]}");
+		assertThat(this.tasks).hasSize(2);
+		assertThat(this.tasks.get(1)).isEqualTo("{\"type\": \"conversational\", \"description\": \"Friendly\"}");
+		assertThat(this.parser.analysis()).isEqualTo("Two styles");
+		assertThat(this.parser.tasks()).isEqualTo(2);
+		assertThat(this.parser.isComplete()).isTrue();
+	}
+
+	@Test
+	void ignoresBracesAndQuotesInsideStrings() {
+		String task = "{\"type\": \"formal\", \"description\": \"Use {braces}, [brackets] and \\\"quotes\\\"\"}";
+
+		this.parser.accept("{\"analysis\": \"Mind the } and \\\" here\", \"tasks\": [" + task + "]}");
+
+		assertThat(this.tasks).containsExactly(task);
+		assertThat(this.parser.analysis()).isEqualTo("Mind the } and \" here");
+	}
+
+	@Test
+	void handsOverNestedTasksAsOneElement() {
+		String task = "{\"id\": \"formal\", \"dependsOn\": [\"facts\"], \"meta\": {\"tasks\": []}}";
+
+		this.parser.accept("{\"tasks\": [" + task + "], \"analysis\": \"after the tasks\"}");
+
+		assertThat(this.tasks).containsExactly(task);
+		assertThat(this.parser.analysis()).isEqualTo("after the tasks");
+	}
+
+	@Test
+	void skipsTextAroundTheObject() {
+		this.parser.accept("Here is the plan:\n```json\n{\"tasks\": [{\"type\": \"formal\"}]}\n```\n{\"tasks\": [{}]}");
+
+		assertThat(this.tasks).containsExactly("{\"type\": \"formal\"}");
+		assertThat(this.parser.isComplete()).isTrue();
+	}
+
+}
@@ -0,0 +1,122 @@
+/*
+* Copyright 2024 - 2024 the original author or authors.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* https://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.example.agentic;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.example.agentic.OrchestratorWorkers.Task;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Tests for {@link TaskGraph}.
+ *
+ * @author Christian Tzolov
+ */
+class TaskGraphTests {
+
+	private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+	@AfterEach
+	void shutdown() {
+		this.executor.shutdownNow();
+	}
+
+	@Test
+	void passesTheOutputsOfTheDependencies() throws InterruptedException {
+		TaskGraph graph = new TaskGraph(this.executor,
+				(task, upstreamOutputs) -> task.description() + upstreamOutputs.values(), "Timed out");
+
+		graph.add(new Task("research", "facts", "facts", List.of()));
+		graph.add(new Task("formal", "formal", "formal", List.of("facts")));
+		graph.close();
+		graph.await();
+
+		assertThat(graph.outputs()).containsExactly("facts[]", "formal[facts[]]");
+		assertThat(graph.errors()).isEmpty();
+	}
+
+	@Test
+	void rejectsCyclicDependencies() {
+		TaskGraph graph = new TaskGraph(this.executor, (task, upstreamOutputs) -> "output", "Timed out");
+		graph.add(new Task("formal", "first", "a", List.of("b")));
+		graph.add(new Task("formal", "second", "b", List.of("a")));
+
+		assertThatThrownBy(graph::close).isInstanceOf(IllegalArgumentException.class)
+			.hasMessageContaining("Cyclic task dependencies");
+	}
+
+	@Test
+	void skipsTheDependentsOfFailedTasks() throws InterruptedException {
+		TaskGraph graph = new TaskGraph(this.executor, (task, upstreamOutputs) -> {
+			if (task.id().equals("a")) {
+				throw new IllegalStateException("Worker failed");
+			}
+			return "output " + task.id();
+		}, "Timed out");
+
+		graph.add(new Task("formal", "fails", "a", List.of()));
+		graph.add(new Task("formal", "depends on a", "b", List.of("a")));
+		graph.add(new Task("formal", "independent", "c", List.of()));
+		graph.add(new Task("formal", "depends on an unknown task", "d", List.of("x")));
+		graph.close();
+		graph.await();
+
+		assertThat(graph.outputs()).containsExactly(null, null, "output c", null);
+		Map<Integer, String> errors = graph.errors();
+		assertThat(errors).containsOnlyKeys(0, 1, 3);
+		assertThat(errors.get(0)).contains("Worker failed");
+		assertThat(errors).containsEntry(1, "Skipped: dependency 'a' failed");
+		assertThat(errors).containsEntry(3, "Unknown dependency 'x'");
+	}
+
+	@Test
+	void defaultIdsDoNotCollideWithExplicitIds() throws InterruptedException {
+		TaskGraph graph = new TaskGraph(this.executor,
+				(task, upstreamOutputs) -> task.description() + upstreamOutputs.keySet(), "Timed out");
+
+		graph.add(new Task("formal", "first"));
+		graph.add(new Task("formal", "second", "1", List.of("#1")));
+		graph.close();
+		graph.await();
+
+		assertThat(graph.outputs()).containsExactly("first[]", "second[#1]");
+	}
+
+	@Test
+	void failsTasksTheExecutorRejects() throws InterruptedException {
+		TaskGraph graph = new TaskGraph(runnable -> {
+			throw new RejectedExecutionException("Executor is shut down");
+		}, (task, upstreamOutputs) -> "output", "Timed out");
+
+		graph.add(new Task("formal", "depends on a", "b", List.of("a")));
+		graph.add(new Task("formal", "rejected", "a", List.of()));
+		graph.close();
+		graph.await();
+
+		Map<Integer, String> errors = graph.errors();
+		assertThat(errors).containsEntry(0, "Skipped: dependency 'a' failed");
+		assertThat(errors.get(1)).startsWith("Not started");
+	}
+
+}
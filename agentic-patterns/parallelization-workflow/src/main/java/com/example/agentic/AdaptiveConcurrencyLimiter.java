@@ -0,0 +1,308 @@
+/*
+* Copyright 2024 - 2024 the original author or authors.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* https://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.example.agentic;
+
+import java.net.SocketTimeoutException;
+import java.net.http.HttpTimeoutException;
+import java.util.Arrays;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import org.springframework.ai.retry.TransientAiException;
+import org.springframework.util.Assert;
+import org.springframework.web.client.RestClientResponseException;
+
+/**
+ * Adaptive concurrency limiter for LLM calls using an AIMD (additive increase,
+ * multiplicative decrease) policy.
+ *
+ * <p>
+ * The limit grows by roughly one permit per fully used window of successful calls.
+ * It is multiplied by the backoff ratio when a call is dropped by the provider (HTTP
+ * 429, transient errors, timeouts), or when the median latency of a window of recent
+ * calls exceeds the long-term minimum of these medians by more than the latency
+ * tolerance. A single slow call, such as one with a long answer, never shrinks the
+ * limit on its own. This keeps the number of concurrent calls close to what the
+ * provider can currently sustain without manual tuning.
+ *
+ * <p>
+ * A call's latency is measured from the moment it is reported as sent with
+ * {@link Permit#started(long)}, or otherwise from the moment its permit was
+ * acquired, so time spent waiting in client-side queues is not mistaken for provider
+ * latency.
+ *
+ * <p>
+ * The current limit and the number of in-flight calls are published as the
+ * {@code parallelization.concurrency.limit} and
+ * {@code parallelization.concurrency.in-flight} gauges when the limiter is
+ * registered as a bean.
+ *
+ * @author Christian Tzolov
+ * @see ParallelizationlWorkflow
+ */
+public class AdaptiveConcurrencyLimiter implements MeterBinder {
+
+	/**
+	 * Default classification of the failures that signal an overloaded provider.
+	 */
+	public static final Predicate<Throwable> DEFAULT_DROP_CLASSIFIER = AdaptiveConcurrencyLimiter::isOverload;
+
+	/**
+	 * Number of successful calls whose median latency is compared with the long-term
+	 * minimum.
+	 */
+	private static final int LATENCY_WINDOW = 16;
+
+	/**
+	 * Growth of the long-term minimum median latency per window, so that a lasting
+	 * change of the provider's latency eventually becomes the new baseline.
+	 */
+	private static final double MIN_LATENCY_AGING = 1.02;
+
+	private final int minLimit;
+
+	private final int maxLimit;
+
+	private final double backoffRatio;
+
+	private final double latencyTolerance;
+
+	private final Predicate<Throwable> dropClassifier;
+
+	private final ReentrantLock lock = new ReentrantLock(true);
+
+	private final Condition permitReleased = this.lock.newCondition();
+
+	private final long[] latencyWindow = new long[LATENCY_WINDOW];
+
+	private double limit;
+
+	private int inFlight;
+
+	private int windowSize;
+
+	private double minMedianLatencyNanos;
+
+	/**
+	 * Creates a limiter with a backoff ratio of 0.5, a latency tolerance of 2.0 and
+	 * the default drop classifier.
+	 *
+	 * @param initialLimit the initial concurrency limit
+	 * @param minLimit     the lower bound of the limit
+	 * @param maxLimit     the upper bound of the limit
+	 */
+	public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+		this(initialLimit, minLimit, maxLimit, 0.5, 2.0, DEFAULT_DROP_CLASSIFIER);
+	}
+
+	/**
+	 * Creates a limiter.
+	 *
+	 * @param initialLimit     the initial concurrency limit
+	 * @param minLimit         the lower bound of the limit, at least 1
+	 * @param maxLimit         the upper bound of the limit
+	 * @param backoffRatio     factor applied to the limit on a drop, between 0 and 1
+	 * @param latencyTolerance ratio of the median latency of a window of calls to the
+	 *                         long-term minimum median above which the window is
+	 *                         treated as a congestion signal
+	 * @param dropClassifier   decides whether a failure signals an overloaded
+	 *                         provider
+	 */
+	public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double backoffRatio,
+			double latencyTolerance, Predicate<Throwable> dropClassifier) {
+		Assert.isTrue(minLimit > 0, "Minimum limit must be greater than 0");
+		Assert.isTrue(maxLimit >= minLimit, "Maximum limit must not be lower than the minimum limit");
+		Assert.isTrue(initialLimit >= minLimit && initialLimit <= maxLimit,
+				"Initial limit must be between the minimum and maximum limit");
+		Assert.isTrue(backoffRatio > 0 && backoffRatio < 1, "Backoff ratio must be between 0 and 1");
+		Assert.isTrue(latencyTolerance > 1, "Latency tolerance must be greater than 1");
+		Assert.notNull(dropClassifier, "Drop classifier must not be null");
+
+		this.limit = initialLimit;
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.backoffRatio = backoffRatio;
+		this.latencyTolerance = latencyTolerance;
+		this.dropClassifier = dropClassifier;
+	}
+
+	/**
+	 * Blocks until the number of in-flight calls is below the current limit.
+	 *
+	 * @return the permit that must be completed exactly once when the call finishes
+	 * @throws InterruptedException if the calling thread is interrupted while waiting
+	 */
+	public Permit acquire() throws InterruptedException {
+		this.lock.lockInterruptibly();
+		try {
+			while (this.inFlight >= (int) this.limit) {
+				this.permitReleased.await();
+			}
+			this.inFlight++;
+			return new Permit(System.nanoTime());
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the current concurrency limit
+	 */
+	public int getLimit() {
+		this.lock.lock();
+		try {
+			return (int) this.limit;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of calls currently holding a permit
+	 */
+	public int getInFlight() {
+		this.lock.lock();
+		try {
+			return this.inFlight;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		Gauge.builder("parallelization.concurrency.limit", this, AdaptiveConcurrencyLimiter::getLimit)
+				.description("Current adaptive limit of concurrent LLM calls")
+				.register(registry);
+		Gauge.builder("parallelization.concurrency.in-flight", this, AdaptiveConcurrencyLimiter::getInFlight)
+				.description("LLM calls currently holding a concurrency permit")
+				.register(registry);
+	}
+
+	private void release(long latencyNanos, boolean dropped, boolean sample) {
+		this.lock.lock();
+		try {
+			boolean saturated = this.inFlight >= (int) this.limit;
+			this.inFlight--;
+
+			if (dropped) {
+				this.limit = Math.max(this.minLimit, this.limit * this.backoffRatio);
+				// The latencies measured before the drop describe a different load.
+				this.windowSize = 0;
+			} else if (sample) {
+				if (saturated) {
+					// Grow by one permit per window of successful calls at the current limit.
+					this.limit = Math.min(this.maxLimit, this.limit + 1.0 / Math.floor(this.limit));
+				}
+				this.latencyWindow[this.windowSize++] = latencyNanos;
+				if (this.windowSize == LATENCY_WINDOW) {
+					completeLatencyWindow();
+				}
+			}
+			this.permitReleased.signalAll();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Compares the median latency of the completed window with the long-term minimum
+	 * and backs off if the typical call has become too slow.
+	 */
+	private void completeLatencyWindow() {
+		long[] sorted = this.latencyWindow.clone();
+		Arrays.sort(sorted);
+		long median = sorted[LATENCY_WINDOW / 2];
+		this.windowSize = 0;
+
+		if (this.minMedianLatencyNanos > 0 && median > this.minMedianLatencyNanos * this.latencyTolerance) {
+			this.limit = Math.max(this.minLimit, this.limit * this.backoffRatio);
+		}
+		this.minMedianLatencyNanos = (this.minMedianLatencyNanos == 0) ? median
+				: Math.min(median, this.minMedianLatencyNanos * MIN_LATENCY_AGING);
+	}
+
+	private static boolean isOverload(Throwable failure) {
+		for (Throwable t = failure; t != null; t = t.getCause()) {
+			if (t instanceof TransientAiException || t instanceof TimeoutException
+					|| t instanceof SocketTimeoutException || t instanceof HttpTimeoutException) {
+				return true;
+			}
+			if (t instanceof RestClientResponseException responseException
+					&& responseException.getStatusCode().value() == 429) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * A permit for a single call. Report the outcome of the call with exactly one of
+	 * {@link #success()}, {@link #failure(Throwable)} or {@link #ignore()}.
+	 */
+	public final class Permit {
+
+		private volatile long startNanos;
+
+		private Permit(long startNanos) {
+			this.startNanos = startNanos;
+		}
+
+		/**
+		 * Restarts the latency measurement when the call is actually sent, after any
+		 * client-side waiting such as rate limiting.
+		 *
+		 * @param startNanos the {@link System#nanoTime()} at which the call was sent
+		 */
+		public void started(long startNanos) {
+			this.startNanos = startNanos;
+		}
+
+		/**
+		 * Releases the permit and records the call's latency.
+		 */
+		public void success() {
+			release(System.nanoTime() - this.startNanos, false, true);
+		}
+
+		/**
+		 * Releases the permit and backs off if the failure signals an overloaded
+		 * provider.
+		 *
+		 * @param failure the failure of the call
+		 */
+		public void failure(Throwable failure) {
+			release(System.nanoTime() - this.startNanos, dropClassifier.test(failure), false);
+		}
+
+		/**
+		 * Releases the permit without adjusting the limit. Used for calls that were
+		 * cancelled or interrupted by the caller, which are neither a latency sample
+		 * nor a sign of an overloaded provider.
+		 */
+		public void ignore() {
+			release(0, false, false);
+		}
+
+	}
+
+}
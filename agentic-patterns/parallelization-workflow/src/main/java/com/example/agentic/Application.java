@@ -16,8 +16,12 @@
 package com.example.agentic;
 
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 
 import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
@@ -30,15 +34,49 @@ public class Application {
 		SpringApplication.run(Application.class, args);
 	}
 
+	@Bean(destroyMethod = "close")
+	public ExecutorService llmCallExecutor() {
+		return Executors.newVirtualThreadPerTaskExecutor();
+	}
+
+	@Bean
+	public Semaphore llmInFlightPermits(@Value("${parallelization.max-in-flight-calls:16}") int maxInFlightCalls) {
+		return new Semaphore(maxInFlightCalls, true);
+	}
+
+	@Bean
+	public AdaptiveConcurrencyLimiter llmConcurrencyLimiter(
+			@Value("${parallelization.adaptive-limit.initial:4}") int initialLimit,
+			@Value("${parallelization.adaptive-limit.min:1}") int minLimit,
+			@Value("${parallelization.adaptive-limit.max:16}") int maxLimit) {
+		return new AdaptiveConcurrencyLimiter(initialLimit, minLimit, maxLimit);
+	}
+
+	@Bean
+	public RateLimitingAdvisor rateLimitingAdvisor(
+			@Value("${agentic.rate-limit.requests-per-minute:50}") int requestsPerMinute,
+			@Value("${agentic.rate-limit.tokens-per-minute:40000}") int tokensPerMinute) {
+		return RateLimitingAdvisor.builder()
+				.requestsPerMinute(requestsPerMinute)
+				.tokensPerMinute(tokensPerMinute)
+				.build();
+	}
+
 	@Bean
-	public CommandLineRunner commandLineRunner(ChatClient.Builder chatClientBuilder) {
+	public CommandLineRunner commandLineRunner(ChatClient.Builder chatClientBuilder,
+			RateLimitingAdvisor rateLimitingAdvisor, ExecutorService llmCallExecutor,
+			Semaphore llmInFlightPermits, AdaptiveConcurrencyLimiter llmConcurrencyLimiter,
+			@Value("${parallelization.single-flight:false}") boolean singleFlight) {
 
 		return args -> {
 			// ------------------------------------------------------------
 			// PARALLEL WORKFLOW
 			// ------------------------------------------------------------
 
-			List<String> parallelResponse = new ParallelizationlWorkflow(chatClientBuilder.build())
+			var chatClient = chatClientBuilder.defaultAdvisors(rateLimitingAdvisor).build();
+
+			List<String> parallelResponse = new ParallelizationlWorkflow(chatClient, llmCallExecutor,
+					llmInFlightPermits, llmConcurrencyLimiter, singleFlight)
 					.parallel("""
 							Analyze how market changes will impact this stakeholder group.
 							Provide specific impacts and recommended actions.
@@ -0,0 +1,305 @@
+/* 
+* Copyright 2024 - 2024 the original author or authors.
+* 
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+* 
+* https://www.apache.org/licenses/LICENSE-2.0
+* 
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.example.agentic;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+import java.util.stream.IntStream;
+
+import org.springframework.util.Assert;
+
+/**
+ * Parallelization workflow with per-input deadlines, partial results and hedged
+ * requests. Instead of failing the whole batch on the first error, it returns one
+ * {@link Outcome} per input.
+ *
+ * <p>
+ * Once a batch has observed a few successful calls, a request that runs longer than
+ * the {@code hedgeQuantile} of the observed latencies gets a single duplicate request.
+ * Latencies are measured from the moment a request is passed to the model, so a
+ * request still waiting for a permit or a rate limit is never hedged, and waiting
+ * does not count towards the hedge threshold. The first successful response wins and
+ * the other request is cancelled. Hedged requests hold a shared in-flight permit, but
+ * not an additional worker of the invocation.
+ *
+ * <p>
+ * The calls share the executor, permits, limiter and single-flight calls of the
+ * {@link ParallelizationlWorkflow} the workflow is created from.
+ *
+ * @author Christian Tzolov
+ * @see ParallelizationlWorkflow
+ */
+public class HedgedParallelWorkflow {
+
+	/**
+	 * Number of successful calls a batch must observe before hedged requests are sent.
+	 */
+	private static final int MIN_HEDGE_SAMPLES = 5;
+
+	/**
+	 * How often a call without a learned hedge threshold re-checks the batch latencies.
+	 */
+	private static final long HEDGE_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private final LlmCallDispatcher dispatcher;
+
+	/**
+	 * Per-input outcome of {@link HedgedParallelWorkflow#parallel(String, List, int, Duration, double)}.
+	 */
+	public sealed interface Outcome permits Outcome.Success, Outcome.Failure, Outcome.TimedOut {
+
+		/**
+		 * @return position of the input in the original inputs list
+		 */
+		int index();
+
+		/**
+		 * @return the processed input
+		 */
+		String input();
+
+		/**
+		 * The input was processed successfully.
+		 *
+		 * @param index  position of the input in the original inputs list
+		 * @param input  the processed input
+		 * @param output the LLM's response for the input
+		 * @param hedged whether a hedged duplicate request was sent for the input
+		 */
+		record Success(int index, String input, String output, boolean hedged) implements Outcome {
+		}
+
+		/**
+		 * Every request for the input failed.
+		 *
+		 * @param index position of the input in the original inputs list
+		 * @param input the processed input
+		 * @param error the failure of the last request
+		 */
+		record Failure(int index, String input, Throwable error) implements Outcome {
+		}
+
+		/**
+		 * No request for the input completed within the per-call deadline.
+		 *
+		 * @param index   position of the input in the original inputs list
+		 * @param input   the processed input
+		 * @param timeout the per-call deadline that was exceeded
+		 */
+		record TimedOut(int index, String input, Duration timeout) implements Outcome {
+		}
+
+	}
+
+	/**
+	 * Creates a hedged workflow sharing the model calls of the given workflow.
+	 *
+	 * @param workflow the workflow providing the ChatClient, executor and permits
+	 */
+	public HedgedParallelWorkflow(ParallelizationlWorkflow workflow) {
+		Assert.notNull(workflow, "Workflow must not be null");
+		this.dispatcher = workflow.dispatcher();
+	}
+
+	/**
+	 * Processes multiple inputs concurrently with a per-call deadline, without
+	 * hedging.
+	 *
+	 * @param prompt      The prompt template to use for each input. Must not be null.
+	 * @param inputs      List of input strings to process. Must not be null or empty.
+	 * @param nWorkers    The maximum number of simultaneous inputs processed by this
+	 *                    invocation. Must be greater than 0.
+	 * @param callTimeout The deadline for each input, measured from the moment its
+	 *                    worker starts, including any wait for permits or rate limits.
+	 *                    Must be positive.
+	 * @return one {@link Outcome} per input, in the same order as the inputs
+	 * @see #parallel(String, List, int, Duration, double)
+	 */
+	public List<Outcome> parallel(String prompt, List<String> inputs, int nWorkers, Duration callTimeout) {
+		return parallel(prompt, inputs, nWorkers, callTimeout, 0);
+	}
+
+	/**
+	 * Processes multiple inputs concurrently with a per-call deadline and hedged
+	 * requests.
+	 *
+	 * @param prompt        The prompt template to use for each input. Must not be null.
+	 * @param inputs        List of input strings to process. Must not be null or empty.
+	 * @param nWorkers      The maximum number of simultaneous inputs processed by this
+	 *                      invocation. Must be greater than 0.
+	 * @param callTimeout   The deadline for each input, measured from the moment its
+	 *                      worker starts, including any wait for permits or rate
+	 *                      limits. Must be positive.
+	 * @param hedgeQuantile The latency quantile of the batch after which a hedged request
+	 *                      is sent, e.g. 0.95. Must be between 0 and 1; 0 disables
+	 *                      hedging.
+	 * @return one {@link Outcome} per input, in the same order as the inputs
+	 * @throws IllegalArgumentException if an argument is invalid
+	 */
+	public List<Outcome> parallel(String prompt, List<String> inputs, int nWorkers, Duration callTimeout,
+			double hedgeQuantile) {
+		Assert.notNull(prompt, "Prompt cannot be null");
+		Assert.notEmpty(inputs, "Inputs list cannot be empty");
+		Assert.isTrue(nWorkers > 0, "Number of workers must be greater than 0");
+		Assert.isTrue(callTimeout != null && !callTimeout.isNegative() && !callTimeout.isZero(),
+				"Call timeout must be positive");
+		Assert.isTrue(hedgeQuantile >= 0 && hedgeQuantile < 1, "Hedge quantile must be between 0 and 1");
+
+		Semaphore workerSlots = new Semaphore(nWorkers);
+		LatencyTracker latencies = new LatencyTracker();
+
+		List<CompletableFuture<Outcome>> futures = IntStream.range(0, inputs.size())
+				.mapToObj(index -> dispatcher.submit(workerSlots, inputs.get(index),
+						() -> callWithDeadline(prompt, index, inputs.get(index), callTimeout, hedgeQuantile,
+								latencies))
+						.exceptionally(e -> new Outcome.Failure(index, inputs.get(index), e)))
+				.toList();
+
+		return futures.stream()
+				.map(CompletableFuture::join)
+				.toList();
+	}
+
+	/**
+	 * Runs the request for a single input until it succeeds, fails or exceeds its
+	 * deadline, sending at most one hedged request once the primary request has been
+	 * with the model for longer than the batch latency threshold.
+	 */
+	private Outcome callWithDeadline(String prompt, int index, String input, Duration callTimeout,
+			double hedgeQuantile, LatencyTracker latencies) {
+		long deadline = System.nanoTime() + callTimeout.toNanos();
+
+		CompletableFuture<Long> primaryStarted = new CompletableFuture<>();
+		CompletableFuture<String> primary = dispatcher.submit(
+				() -> timedCall(onStart -> dispatcher.call(prompt, input, onStart), primaryStarted, latencies));
+		CompletableFuture<String> hedge = null;
+		CompletableFuture<String> result = primary;
+		try {
+			while (true) {
+				long now = System.nanoTime();
+				if (now >= deadline) {
+					return new Outcome.TimedOut(index, input, callTimeout);
+				}
+				long wait = deadline - now;
+				if (hedge == null && hedgeQuantile > 0) {
+					// No hedge while the primary request still waits for its permits.
+					Long start = primaryStarted.getNow(null);
+					long threshold = latencies.quantile(hedgeQuantile);
+					if (start != null && threshold >= 0 && now - start >= threshold) {
+						// The hedged request bypasses single-flight, which would join the primary.
+						hedge = dispatcher.submit(() -> timedCall(onStart -> dispatcher.callModel(prompt, input, onStart),
+								new CompletableFuture<>(), latencies));
+						result = firstSuccessful(primary, hedge);
+						continue;
+					}
+					wait = Math.min(wait, (start != null && threshold >= 0) ? start + threshold - now : HEDGE_POLL_NANOS);
+				}
+				try {
+					return new Outcome.Success(index, input, result.get(wait, TimeUnit.NANOSECONDS), hedge != null);
+				} catch (TimeoutException e) {
+					// deadline or hedge threshold reached, re-evaluate
+				}
+			}
+		} catch (ExecutionException e) {
+			return new Outcome.Failure(index, input, e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return new Outcome.Failure(index, input, e);
+		} finally {
+			primary.cancel(true);
+			if (hedge != null) {
+				hedge.cancel(true);
+			}
+		}
+	}
+
+	/**
+	 * Runs the model call and records its latency, measured from the moment its
+	 * request was passed to the model.
+	 *
+	 * @param started completed with the {@link System#nanoTime()} at which the request
+	 *                was passed to the model
+	 */
+	private static String timedCall(Function<LongConsumer, String> modelCall, CompletableFuture<Long> started,
+			LatencyTracker latencies) {
+		String content = modelCall.apply(started::complete);
+		Long start = started.getNow(null);
+		if (start != null) {
+			latencies.record(System.nanoTime() - start);
+		}
+		return content;
+	}
+
+	/**
+	 * Completes with the first successful result of the two futures, or with the
+	 * failure of the last one if both fail.
+	 */
+	private static <T> CompletableFuture<T> firstSuccessful(CompletableFuture<T> first, CompletableFuture<T> second) {
+		CompletableFuture<T> result = new CompletableFuture<>();
+		AtomicInteger failures = new AtomicInteger();
+		BiConsumer<T, Throwable> handler = (value, error) -> {
+			if (error == null) {
+				result.complete(value);
+			} else if (failures.incrementAndGet() == 2) {
+				result.completeExceptionally(error);
+			}
+		};
+		first.whenComplete(handler);
+		second.whenComplete(handler);
+		return result;
+	}
+
+	/**
+	 * Latencies of the most recent successful calls of a batch, used to derive the
+	 * hedging threshold.
+	 */
+	private static final class LatencyTracker {
+
+		private final long[] samples = new long[256];
+
+		private int count;
+
+		synchronized void record(long latencyNanos) {
+			this.samples[this.count++ % this.samples.length] = latencyNanos;
+		}
+
+		/**
+		 * @return the latency quantile in nanoseconds, or -1 while too few calls have
+		 *         completed
+		 */
+		synchronized long quantile(double quantile) {
+			int size = Math.min(this.count, this.samples.length);
+			if (size < MIN_HEDGE_SAMPLES) {
+				return -1;
+			}
+			long[] sorted = Arrays.copyOf(this.samples, size);
+			Arrays.sort(sorted);
+			return sorted[Math.min(size - 1, (int) Math.ceil(quantile * size) - 1)];
+		}
+
+	}
+
+}
@@ -0,0 +1,466 @@
+/* 
+* Copyright 2024 - 2024 the original author or authors.
+* 
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+* 
+* https://www.apache.org/licenses/LICENSE-2.0
+* 
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.example.agentic;
+
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.client.ChatClientRequest;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.client.advisor.api.BaseAdvisor;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisor;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisorChain;
+import org.springframework.util.Assert;
+
+/**
+ * Dispatches the model calls of the parallelization workflows. It owns the permit
+ * handling shared by all of them: every model call holds a shared in-flight permit
+ * and, if configured, an adaptive limiter permit, and every task of an invocation
+ * can additionally hold one of the invocation's worker slots.
+ *
+ * <p>
+ * With single-flight enabled, identical prompt and input pairs share one in-flight
+ * model call across all workflows using the same dispatcher.
+ *
+ * @author Christian Tzolov
+ * @see ParallelizationlWorkflow
+ */
+final class LlmCallDispatcher {
+
+	/**
+	 * Rough number of characters per token used to estimate the size of inputs.
+	 */
+	private static final int CHARS_PER_TOKEN = 4;
+
+	/**
+	 * Relative cost of an output token compared to an input token. Output tokens are
+	 * generated sequentially and dominate the latency of a call.
+	 */
+	private static final double OUTPUT_TOKEN_WEIGHT = 5.0;
+
+	/**
+	 * Request context key of the {@link LongConsumer} notified with the
+	 * {@link System#nanoTime()} at which a request is passed to the model.
+	 */
+	private static final String CALL_STARTED = LlmCallDispatcher.class.getName() + ".callStarted";
+
+	private static final CallStartedAdvisor CALL_STARTED_ADVISOR = new CallStartedAdvisor();
+
+	private final ChatClient chatClient;
+
+	private final Executor executor;
+
+	private final Semaphore inFlightPermits;
+
+	private final AdaptiveConcurrencyLimiter limiter;
+
+	private final boolean singleFlight;
+
+	private final Scheduler scheduler;
+
+	private final Map<String, Flight> inFlightCalls = new ConcurrentHashMap<>();
+
+	private final OutputLengthModel outputLengthModel = new OutputLengthModel();
+
+	LlmCallDispatcher(ChatClient chatClient, Executor executor, Semaphore inFlightPermits,
+			AdaptiveConcurrencyLimiter limiter, boolean singleFlight) {
+		Assert.notNull(chatClient, "ChatClient must not be null");
+		Assert.notNull(executor, "Executor must not be null");
+		Assert.notNull(inFlightPermits, "In-flight permits must not be null");
+
+		this.chatClient = chatClient;
+		this.executor = executor;
+		this.inFlightPermits = inFlightPermits;
+		this.limiter = limiter;
+		this.singleFlight = singleFlight;
+		this.scheduler = Schedulers.fromExecutor(executor);
+	}
+
+	ChatClient chatClient() {
+		return this.chatClient;
+	}
+
+	Executor executor() {
+		return this.executor;
+	}
+
+	Scheduler scheduler() {
+		return this.scheduler;
+	}
+
+	boolean singleFlight() {
+		return this.singleFlight;
+	}
+
+	/**
+	 * A model call shared by all callers of the same prompt and input pair.
+	 *
+	 * @param result  completes with the result of the call
+	 * @param started completes with the {@link System#nanoTime()} at which the request
+	 *                was passed to the model
+	 */
+	private record Flight(CompletableFuture<String> result, CompletableFuture<Long> started) {
+	}
+
+	/**
+	 * Calls the model for a single input.
+	 *
+	 * @see #call(String, String, LongConsumer)
+	 */
+	String call(String prompt, String input) {
+		return call(prompt, input, started -> {});
+	}
+
+	/**
+	 * Calls the model for a single input. With single-flight enabled, a call for a prompt
+	 * and input pair that is already in flight waits for and shares its result. If the
+	 * call it waits for is cancelled, it takes over and calls the model itself.
+	 *
+	 * @param onStart notified with the {@link System#nanoTime()} at which the request
+	 *                is passed to the model, after all permits and rate limits; for a
+	 *                shared call, when the shared request is passed to the model
+	 */
+	String call(String prompt, String input, LongConsumer onStart) {
+		if (!this.singleFlight) {
+			return callModel(prompt, input, onStart);
+		}
+		String key = singleFlightKey(prompt, input);
+		while (true) {
+			Flight flight = new Flight(new CompletableFuture<>(), new CompletableFuture<>());
+			Flight existing = this.inFlightCalls.putIfAbsent(key, flight);
+			if (existing == null) {
+				return leadFlight(key, flight, prompt, input, onStart);
+			}
+			existing.started().thenAccept(onStart::accept);
+			try {
+				return existing.result().get();
+			} catch (CancellationException e) {
+				// the leading call was cancelled, retry
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException runtimeException) {
+					throw runtimeException;
+				}
+				throw new RuntimeException("Failed to process input: " + input, e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while processing input: " + input, e);
+			}
+		}
+	}
+
+	private String leadFlight(String key, Flight flight, String prompt, String input, LongConsumer onStart) {
+		try {
+			String content = callModel(prompt, input, started -> {
+				flight.started().complete(started);
+				onStart.accept(started);
+			});
+			flight.result().complete(content);
+			return content;
+		} catch (RuntimeException e) {
+			if (Thread.currentThread().isInterrupted() || isInterruption(e)) {
+				flight.result().cancel(false);
+			} else {
+				flight.result().completeExceptionally(e);
+			}
+			throw e;
+		} finally {
+			this.inFlightCalls.remove(key, flight);
+		}
+	}
+
+	/**
+	 * Calls the model for a single input, bypassing single-flight.
+	 *
+	 * @param onStart notified with the {@link System#nanoTime()} at which the request
+	 *                is passed to the model
+	 */
+	String callModel(String prompt, String input, LongConsumer onStart) {
+		String content = limitedCall(input, onStart, advisors -> doCall(prompt, input, advisors));
+		if (content != null) {
+			this.outputLengthModel.record(estimateTokens(input), estimateTokens(content));
+		}
+		return content;
+	}
+
+	/**
+	 * Runs a model call while holding a shared in-flight permit and, if configured, an
+	 * adaptive limiter permit. The limiter permit is only acquired once the shared
+	 * permit is held, and its latency is measured from the moment the request is
+	 * passed to the model, so neither the wait for the shared permit nor the wait of
+	 * a rate limiting advisor counts as provider latency. The model call must apply
+	 * the given advisor customization to its request for this.
+	 *
+	 * <p>
+	 * A call that is cancelled or interrupted, e.g. by fail-fast cancellation or a won
+	 * hedge, releases its limiter permit without adjusting the limit, since its
+	 * latency and failure say nothing about the provider.
+	 *
+	 * @param label identifies the call in error messages
+	 */
+	<T> T limitedCall(String label, Function<Consumer<ChatClient.AdvisorSpec>, T> modelCall) {
+		return limitedCall(label, started -> {}, modelCall);
+	}
+
+	/**
+	 * Runs a model call like {@link #limitedCall(String, Function)} and notifies the
+	 * listener when the request is passed to the model.
+	 *
+	 * @param label   identifies the call in error messages
+	 * @param onStart notified with the {@link System#nanoTime()} at which the request
+	 *                is passed to the model
+	 */
+	<T> T limitedCall(String label, LongConsumer onStart, Function<Consumer<ChatClient.AdvisorSpec>, T> modelCall) {
+		if (this.limiter == null) {
+			return withPermit(this.inFlightPermits, label, () -> modelCall.apply(callStarted(onStart)));
+		}
+		return withPermit(this.inFlightPermits, label, () -> {
+			AdaptiveConcurrencyLimiter.Permit permit;
+			try {
+				permit = this.limiter.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while processing input: " + label, e);
+			}
+			try {
+				T result = modelCall.apply(callStarted(started -> {
+					permit.started(started);
+					onStart.accept(started);
+				}));
+				permit.success();
+				return result;
+			} catch (RuntimeException e) {
+				if (Thread.currentThread().isInterrupted() || isInterruption(e)) {
+					permit.ignore();
+				} else {
+					permit.failure(e);
+				}
+				throw e;
+			}
+		});
+	}
+
+	/**
+	 * Returns an advisor customization that notifies the listener with the
+	 * {@link System#nanoTime()} at which the request is passed to the model, after all
+	 * other advisors.
+	 */
+	private static Consumer<ChatClient.AdvisorSpec> callStarted(LongConsumer listener) {
+		return advisors -> advisors.advisors(CALL_STARTED_ADVISOR).param(CALL_STARTED, listener);
+	}
+
+	private String doCall(String prompt, String input, Consumer<ChatClient.AdvisorSpec> advisors) {
+		try {
+			return this.chatClient.prompt(prompt + "\nInput: " + input).advisors(advisors).call().content();
+		} catch (Exception e) {
+			throw new RuntimeException("Failed to process input: " + input, e);
+		}
+	}
+
+	/**
+	 * Runs the task on the executor while it holds one of the invocation's worker
+	 * slots.
+	 *
+	 * @see #submit(Supplier)
+	 */
+	<T> CompletableFuture<T> submit(Semaphore workerSlots, String label, Supplier<T> task) {
+		return submit(() -> withPermit(workerSlots, label, task));
+	}
+
+	/**
+	 * Runs the task on the executor and returns a future whose cancellation interrupts
+	 * the thread running the task, aborting a blocking model call in flight.
+	 */
+	<T> CompletableFuture<T> submit(Supplier<T> task) {
+		Thread[] runner = new Thread[1];
+		CompletableFuture<T> future = new CompletableFuture<>() {
+
+			@Override
+			public boolean cancel(boolean mayInterruptIfRunning) {
+				boolean cancelled = super.cancel(mayInterruptIfRunning);
+				synchronized (runner) {
+					if (cancelled && runner[0] != null) {
+						runner[0].interrupt();
+					}
+				}
+				return cancelled;
+			}
+
+		};
+		this.executor.execute(() -> {
+			synchronized (runner) {
+				if (future.isDone()) {
+					return;
+				}
+				runner[0] = Thread.currentThread();
+			}
+			try {
+				future.complete(task.get());
+			} catch (Throwable e) {
+				future.completeExceptionally(e);
+			} finally {
+				synchronized (runner) {
+					runner[0] = null;
+					// Clear an interrupt that arrived after the task completed.
+					Thread.interrupted();
+				}
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * Waits for all tasks. With {@code failFast}, the first failure cancels the other
+	 * tasks, which interrupts the calls in flight and releases their permits, and is
+	 * thrown without waiting for them.
+	 */
+	static void awaitAll(List<? extends CompletableFuture<?>> tasks, boolean failFast) {
+		CompletableFuture<Void> all = CompletableFuture.allOf(tasks.toArray(CompletableFuture[]::new));
+		if (failFast) {
+			CompletableFuture<Void> firstFailure = new CompletableFuture<>();
+			tasks.forEach(task -> task.whenComplete((result, error) -> {
+				if (error != null) {
+					firstFailure.completeExceptionally(error);
+				}
+			}));
+			try {
+				CompletableFuture.anyOf(all, firstFailure).join();
+			} catch (RuntimeException e) {
+				tasks.forEach(task -> task.cancel(true));
+				throw e;
+			}
+		}
+		all.join();
+	}
+
+	static <T> T withPermit(Semaphore permits, String label, Supplier<T> action) {
+		try {
+			permits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while processing input: " + label, e);
+		}
+		try {
+			return action.get();
+		} finally {
+			permits.release();
+		}
+	}
+
+	/**
+	 * Splits the inputs into consecutive groups bounded by size and estimated tokens. A
+	 * single input exceeding the token bound forms a group of its own.
+	 */
+	static List<List<String>> group(List<String> inputs, int maxGroupSize, int maxGroupTokens) {
+		List<List<String>> groups = new ArrayList<>();
+		List<String> current = new ArrayList<>();
+		int currentTokens = 0;
+		for (String input : inputs) {
+			int tokens = estimateTokens(input);
+			if (!current.isEmpty() && (current.size() >= maxGroupSize || currentTokens + tokens > maxGroupTokens)) {
+				groups.add(current);
+				current = new ArrayList<>();
+				currentTokens = 0;
+			}
+			current.add(input);
+			currentTokens += tokens;
+		}
+		groups.add(current);
+		return groups;
+	}
+
+	/**
+	 * Estimates the cost of an input from its tokens and the output length predicted
+	 * from the calls completed so far.
+	 */
+	double estimateCost(String input) {
+		int inputTokens = estimateTokens(input);
+		return inputTokens + OUTPUT_TOKEN_WEIGHT * this.outputLengthModel.predict(inputTokens);
+	}
+
+	static int estimateTokens(String text) {
+		return text.length() / CHARS_PER_TOKEN + 1;
+	}
+
+	private static String singleFlightKey(String prompt, String input) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(prompt.getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+			digest.update(input.getBytes(StandardCharsets.UTF_8));
+			return HexFormat.of().formatHex(digest.digest());
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available", e);
+		}
+	}
+
+	private static boolean isInterruption(Throwable failure) {
+		for (Throwable t = failure; t != null; t = t.getCause()) {
+			if (t instanceof InterruptedException
+					|| (t instanceof InterruptedIOException && !(t instanceof SocketTimeoutException))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Notifies the listener found in the request context right before the request is
+	 * passed to the model. Runs after all other advisors, including any rate limiting.
+	 */
+	private static final class CallStartedAdvisor implements CallAdvisor {
+
+		@Override
+		public String getName() {
+			return "Call Started Advisor";
+		}
+
+		@Override
+		public int getOrder() {
+			return BaseAdvisor.LOWEST_PRECEDENCE - 1;
+		}
+
+		@Override
+		public ChatClientResponse adviseCall(ChatClientRequest chatClientRequest, CallAdvisorChain callAdvisorChain) {
+			if (chatClientRequest.context().get(CALL_STARTED) instanceof LongConsumer listener) {
+				listener.accept(System.nanoTime());
+			}
+			return callAdvisorChain.nextCall(chatClientRequest);
+		}
+
+	}
+
+}
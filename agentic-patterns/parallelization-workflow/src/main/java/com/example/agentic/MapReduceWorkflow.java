@@ -0,0 +1,111 @@
+/* 
+* Copyright 2024 - 2024 the original author or authors.
+* 
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+* 
+* https://www.apache.org/licenses/LICENSE-2.0
+* 
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.example.agentic;
+
+import java.util.Iterator;
+import java.util.List;
+
+import org.springframework.util.Assert;
+
+/**
+ * Hierarchical map-reduce aggregation on top of the {@link ParallelizationlWorkflow}.
+ *
+ * <p>
+ * Every input is mapped with the map prompt, and the partial results are reduced
+ * with a tree-shaped reduction until a single answer remains. At each level the
+ * partial results are grouped, in order, so that a group's estimated tokens fit into
+ * {@code maxReduceTokens}, and all groups of the level are reduced concurrently with
+ * one call each. A partial result that fills the budget on its own is carried over to
+ * the next level unchanged; if no group of a level could be combined, pairs are
+ * reduced to guarantee progress. Large batches therefore need a logarithmic number of
+ * reduce levels instead of one oversized reduce call.
+ *
+ * @author Christian Tzolov
+ * @see ParallelizationlWorkflow
+ */
+public class MapReduceWorkflow {
+
+	private final ParallelizationlWorkflow workflow;
+
+	/**
+	 * Creates a map-reduce workflow running its map and reduce calls on the given
+	 * workflow.
+	 *
+	 * @param workflow the workflow running the calls of every level
+	 */
+	public MapReduceWorkflow(ParallelizationlWorkflow workflow) {
+		Assert.notNull(workflow, "Workflow must not be null");
+		this.workflow = workflow;
+	}
+
+	/**
+	 * Maps every input with the map prompt and reduces the partial results until a
+	 * single answer remains.
+	 *
+	 * @param mapPrompt       The prompt applied to each input. Must not be null.
+	 * @param inputs          List of input strings to process. Must not be null or empty.
+	 * @param reducePrompt    The prompt combining a group of partial results into one.
+	 *                        Must not be null.
+	 * @param nWorkers        The maximum number of simultaneous LLM API calls for this
+	 *                        invocation. Must be greater than 0.
+	 * @param maxReduceTokens The maximum estimated tokens of the partial results combined
+	 *                        by a single reduce call. Must be greater than 0.
+	 * @return the single reduced answer
+	 * @throws IllegalArgumentException if an argument is invalid
+	 * @throws RuntimeException if processing fails for any input or group
+	 */
+	public String mapReduce(String mapPrompt, List<String> inputs, String reducePrompt, int nWorkers,
+			int maxReduceTokens) {
+		Assert.notNull(reducePrompt, "Reduce prompt cannot be null");
+		Assert.isTrue(maxReduceTokens > 0, "Maximum reduce tokens must be greater than 0");
+
+		List<String> level = workflow.parallel(mapPrompt, inputs, nWorkers);
+
+		while (level.size() > 1) {
+			List<List<String>> groups = LlmCallDispatcher.group(level, Integer.MAX_VALUE, maxReduceTokens);
+			if (groups.size() == level.size()) {
+				groups = LlmCallDispatcher.group(level, 2, Integer.MAX_VALUE);
+			}
+			level = reduceLevel(reducePrompt, groups, nWorkers);
+		}
+		return level.get(0);
+	}
+
+	/**
+	 * Reduces every group of more than one partial result with one concurrent call and
+	 * carries single partial results over unchanged.
+	 */
+	private List<String> reduceLevel(String reducePrompt, List<List<String>> groups, int nWorkers) {
+		List<String> combinedGroups = groups.stream()
+				.filter(group -> group.size() > 1)
+				.map(MapReduceWorkflow::combinePartialResults)
+				.toList();
+		Iterator<String> reduced = workflow.parallel(reducePrompt, combinedGroups, nWorkers).iterator();
+
+		return groups.stream()
+				.map(group -> (group.size() > 1) ? reduced.next() : group.get(0))
+				.toList();
+	}
+
+	private static String combinePartialResults(List<String> group) {
+		StringBuilder combined = new StringBuilder();
+		for (int i = 0; i < group.size(); i++) {
+			combined.append("\nPartial result ").append(i + 1).append(":\n").append(group.get(i)).append('\n');
+		}
+		return combined.toString();
+	}
+
+}
@@ -0,0 +1,77 @@
+/*
+* Copyright 2024 - 2024 the original author or authors.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* https://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.example.agentic;
+
+/**
+ * Online linear model predicting the number of output tokens of an LLM call from the
+ * number of input tokens, learned from the calls completed so far.
+ *
+ * <p>
+ * The model is fitted with ordinary least squares over all observations. Until at
+ * least two observations with different input lengths are available, it predicts
+ * the average output length, or the input length itself when nothing has been
+ * observed yet.
+ *
+ * @author Christian Tzolov
+ * @see ParallelizationlWorkflow
+ */
+final class OutputLengthModel {
+
+	private long count;
+
+	private double sumInput;
+
+	private double sumOutput;
+
+	private double sumInputSquared;
+
+	private double sumInputOutput;
+
+	/**
+	 * Records a completed call.
+	 *
+	 * @param inputTokens  the estimated input tokens of the call
+	 * @param outputTokens the estimated output tokens of the call
+	 */
+	synchronized void record(int inputTokens, int outputTokens) {
+		this.count++;
+		this.sumInput += inputTokens;
+		this.sumOutput += outputTokens;
+		this.sumInputSquared += (double) inputTokens * inputTokens;
+		this.sumInputOutput += (double) inputTokens * outputTokens;
+	}
+
+	/**
+	 * Predicts the output tokens of a call.
+	 *
+	 * @param inputTokens the estimated input tokens of the call
+	 * @return the predicted output tokens, never negative
+	 */
+	synchronized double predict(int inputTokens) {
+		if (this.count == 0) {
+			return inputTokens;
+		}
+		double meanOutput = this.sumOutput / this.count;
+		double variance = this.count * this.sumInputSquared - this.sumInput * this.sumInput;
+		if (this.count < 2 || variance <= 0) {
+			return meanOutput;
+		}
+		double slope = (this.count * this.sumInputOutput - this.sumInput * this.sumOutput) / variance;
+		double intercept = meanOutput - slope * (this.sumInput / this.count);
+		return Math.max(0, intercept + slope * inputTokens);
+	}
+
+}
@@ -0,0 +1,179 @@
+/* 
+* Copyright 2024 - 2024 the original author or authors.
+* 
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+* 
+* https://www.apache.org/licenses/LICENSE-2.0
+* 
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.example.agentic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.converter.BeanOutputConverter;
+import org.springframework.util.Assert;
+
+/**
+ * Parallelization workflow that packs several inputs into each LLM call, to save
+ * per-request overhead and repeated prompt tokens for short inputs.
+ *
+ * <p>
+ * Consecutive inputs are grouped into packs of at most {@code maxPackSize} inputs
+ * and at most {@code maxPackTokens} estimated input tokens (a single larger input
+ * forms a pack of its own). Each pack is sent as one request asking for a structured
+ * array with one answer per input id, and the answers are split back to their
+ * inputs.
+ *
+ * <p>
+ * The calls share the executor, permits and limiter of the
+ * {@link ParallelizationlWorkflow} the workflow is created from.
+ *
+ * @author Christian Tzolov
+ * @see ParallelizationlWorkflow
+ */
+public class PackedParallelWorkflow {
+
+	private static final BeanOutputConverter<PackedResponse> RESPONSE_CONVERTER = new BeanOutputConverter<>(
+			PackedResponse.class);
+
+	private final LlmCallDispatcher dispatcher;
+
+	/**
+	 * Answer for a single input of a packed request.
+	 *
+	 * @param id     the id of the input within the pack
+	 * @param output the LLM's response for the input
+	 */
+	public static record PackedAnswer(int id, String output) {
+	}
+
+	/**
+	 * Structured response of a packed request, containing one answer per input.
+	 *
+	 * @param answers the answers, one per input of the pack
+	 */
+	public static record PackedResponse(List<PackedAnswer> answers) {
+	}
+
+	/**
+	 * Creates a packed workflow sharing the model calls of the given workflow.
+	 *
+	 * @param workflow the workflow providing the ChatClient, executor and permits
+	 */
+	public PackedParallelWorkflow(ParallelizationlWorkflow workflow) {
+		Assert.notNull(workflow, "Workflow must not be null");
+		this.dispatcher = workflow.dispatcher();
+	}
+
+	/**
+	 * Processes multiple inputs concurrently, packing several inputs into each LLM
+	 * call. If a packed response cannot be parsed or misses an answer, the inputs of
+	 * that pack are processed with one request each, sequentially within the pack's
+	 * worker slot. Failures of the packed request itself, such as rate limiting or
+	 * timeouts, are not retried this way and fail the invocation.
+	 *
+	 * @param prompt        The prompt template to use for each input. Must not be null.
+	 * @param inputs        List of input strings to process. Must not be null or empty.
+	 * @param nWorkers      The maximum number of simultaneous packed requests for this
+	 *                      invocation. Must be greater than 0.
+	 * @param maxPackSize   The maximum number of inputs per request. Must be greater
+	 *                      than 0.
+	 * @param maxPackTokens The maximum estimated number of input tokens per request.
+	 *                      Must be greater than 0.
+	 * @return List of processed results in the same order as the inputs
+	 * @throws IllegalArgumentException if an argument is invalid
+	 * @throws RuntimeException if processing fails for any input
+	 */
+	public List<String> parallel(String prompt, List<String> inputs, int nWorkers, int maxPackSize,
+			int maxPackTokens) {
+		Assert.notNull(prompt, "Prompt cannot be null");
+		Assert.notEmpty(inputs, "Inputs list cannot be empty");
+		Assert.isTrue(nWorkers > 0, "Number of workers must be greater than 0");
+		Assert.isTrue(maxPackSize > 0, "Maximum pack size must be greater than 0");
+		Assert.isTrue(maxPackTokens > 0, "Maximum pack tokens must be greater than 0");
+
+		Semaphore workerSlots = new Semaphore(nWorkers);
+
+		List<CompletableFuture<List<String>>> futures = new ArrayList<>();
+		int firstIndex = 0;
+		for (List<String> pack : LlmCallDispatcher.group(inputs, maxPackSize, maxPackTokens)) {
+			String label = "pack starting at input " + firstIndex;
+			futures.add(dispatcher.submit(workerSlots, label, () -> callPacked(prompt, pack, label)));
+			firstIndex += pack.size();
+		}
+
+		LlmCallDispatcher.awaitAll(futures, false);
+
+		return futures.stream()
+				.flatMap(future -> future.join().stream())
+				.toList();
+	}
+
+	/**
+	 * Processes a pack with a single structured request, falling back to one request
+	 * per input if the packed response cannot be split back to the inputs. The
+	 * fallback requests run one after another on the worker slot already held by the
+	 * pack, so they never exceed the invocation's {@code nWorkers}. A failure of the
+	 * packed request itself is thrown, since the per-input requests would most likely
+	 * fail the same way.
+	 */
+	private List<String> callPacked(String prompt, List<String> pack, String label) {
+		if (pack.size() == 1) {
+			return List.of(dispatcher.call(prompt, pack.get(0)));
+		}
+		ChatClient chatClient = dispatcher.chatClient();
+		String content = dispatcher.limitedCall(label, advisors -> chatClient
+				.prompt(packedPrompt(prompt, pack) + "\n" + RESPONSE_CONVERTER.getFormat())
+				.advisors(advisors)
+				.call()
+				.content());
+		try {
+			return unpack(RESPONSE_CONVERTER.convert(content), pack.size());
+		} catch (RuntimeException e) {
+			return pack.stream()
+					.map(input -> dispatcher.call(prompt, input))
+					.toList();
+		}
+	}
+
+	private static String packedPrompt(String prompt, List<String> pack) {
+		StringBuilder packed = new StringBuilder(prompt)
+				.append("\nApply these instructions to each of the following inputs independently.")
+				.append("\nReturn exactly one answer per input, using the input's id.\n");
+		for (int id = 0; id < pack.size(); id++) {
+			packed.append("\nInput ").append(id).append(":\n").append(pack.get(id)).append('\n');
+		}
+		return packed.toString();
+	}
+
+	private static List<String> unpack(PackedResponse response, int packSize) {
+		if (response == null || response.answers() == null) {
+			throw new IllegalStateException("Packed response contains no answers");
+		}
+		String[] outputs = new String[packSize];
+		for (PackedAnswer answer : response.answers()) {
+			if (answer == null || answer.id() < 0 || answer.id() >= packSize || answer.output() == null) {
+				throw new IllegalStateException("Packed response contains an invalid answer: " + answer);
+			}
+			outputs[answer.id()] = answer.output();
+		}
+		for (int id = 0; id < packSize; id++) {
+			if (outputs[id] == null) {
+				throw new IllegalStateException("Packed response misses the answer for input " + id);
+			}
+		}
+		return List.of(outputs);
+	}
+
+}
@@ -15,11 +15,30 @@
 */
 package com.example.agentic;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.util.Assert;
@@ -65,6 +84,26 @@ import org.springframework.util.Assert;
  * <li>Implement appropriate error handling for parallel task failures</li>
  * </ul>
  *
+ * <p><b>Threading Model:</b></p>
+ * Calls run on a long-lived {@link Executor} (by default a JVM-wide virtual thread
+ * per task executor) instead of a pool created per invocation. Every call must hold a
+ * permit from a shared {@link Semaphore}, so concurrent {@code parallel()} invocations
+ * together never exceed the configured number of in-flight model calls, while
+ * {@code nWorkers} still bounds the concurrency of a single invocation. An optional
+ * {@link AdaptiveConcurrencyLimiter} additionally adapts the number of concurrent calls
+ * to the provider's current latency and rate limiting.
+ *
+ * <p><b>Single-Flight Deduplication:</b></p>
+ * When enabled, identical prompt and input pairs share a single in-flight model call,
+ * within a batch as well as across concurrent invocations of the same workflow
+ * instance. Keep it disabled for voting scenarios, which rely on repeated calls with
+ * identical inputs.
+ *
+ * <p><b>Related Workflows:</b></p>
+ * {@link PackedParallelWorkflow}, {@link HedgedParallelWorkflow} and
+ * {@link MapReduceWorkflow} build on a workflow instance and share its executor,
+ * permits, limiter and single-flight calls.
+ *
  * @author Christian Tzolov
  * @see org.springframework.ai.chat.client.ChatClient
  * @see <a href="https://docs.spring.io/spring-ai/reference/1.0/api/chatclient.html">Spring AI ChatClient</a>
@@ -74,23 +113,148 @@ import org.springframework.util.Assert;
  */
 public class ParallelizationlWorkflow {
 
-	private final ChatClient chatClient;
+	/**
+	 * Default JVM-wide limit of in-flight model calls shared by all workflow instances
+	 * that do not provide their own permits.
+	 */
+	public static final int DEFAULT_MAX_IN_FLIGHT_CALLS = 16;
+
+	private static final ExecutorService SHARED_EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+
+	private static final Semaphore SHARED_IN_FLIGHT_PERMITS = new Semaphore(DEFAULT_MAX_IN_FLIGHT_CALLS, true);
+
+	private final LlmCallDispatcher dispatcher;
+
+	/**
+	 * Order in which {@link #parallel(String, List, int, Scheduling)} dispatches inputs to
+	 * the workers.
+	 */
+	public enum Scheduling {
+
+		/**
+		 * Dispatch the inputs in list order.
+		 */
+		FIFO,
+
+		/**
+		 * Dispatch the inputs with the highest estimated cost first (LPT), which shortens
+		 * the completion time of batches with inputs of very different sizes. The cost is
+		 * estimated from the input's token length and the output length predicted from
+		 * the calls this workflow has completed so far.
+		 */
+		LONGEST_FIRST
+
+	}
+
+	/**
+	 * How {@link #parallel(String, List, int, Scheduling, FailurePolicy)} reacts to a
+	 * failing input.
+	 */
+	public enum FailurePolicy {
+
+		/**
+		 * Let every call finish before throwing the failure.
+		 */
+		WAIT_FOR_ALL,
+
+		/**
+		 * Throw the first failure immediately. Inputs not yet dispatched are skipped, and
+		 * the calls in flight are interrupted so that their threads and concurrency
+		 * permits are released.
+		 */
+		FAIL_FAST
+
+	}
 
+	/**
+	 * Result of a single input processed by {@link #parallelStream(String, List, int)}
+	 * or one of the other streaming overloads. The index is a {@code long}, since
+	 * {@code Stream}, {@code Iterator} and {@code Publisher} inputs are unbounded.
+	 *
+	 * @param index  position of the input in the original inputs or input sequence
+	 * @param input  the processed input
+	 * @param output the LLM's response for the input
+	 */
+	public static record IndexedResult(long index, String input, String output) {
+	}
+
+	/**
+	 * Creates a workflow that runs on the shared virtual thread executor and the shared
+	 * {@link #DEFAULT_MAX_IN_FLIGHT_CALLS} permit limit.
+	 *
+	 * @param chatClient the ChatClient to use for LLM interactions
+	 */
 	public ParallelizationlWorkflow(ChatClient chatClient) {
-		this.chatClient = chatClient;
+		this(chatClient, SHARED_EXECUTOR, SHARED_IN_FLIGHT_PERMITS);
+	}
+
+	/**
+	 * Creates a workflow that runs on the given long-lived executor and limits in-flight
+	 * model calls with the given permits. Pass the same executor and semaphore to every
+	 * workflow instance that should share a single global limit.
+	 *
+	 * @param chatClient      the ChatClient to use for LLM interactions
+	 * @param executor        the executor running the model calls, typically backed by
+	 *                        virtual threads. It is not shut down by this workflow.
+	 * @param inFlightPermits permits bounding the number of concurrent model calls across
+	 *                        all invocations sharing this semaphore
+	 */
+	public ParallelizationlWorkflow(ChatClient chatClient, Executor executor, Semaphore inFlightPermits) {
+		this(chatClient, executor, inFlightPermits, null);
+	}
+
+	/**
+	 * Creates a workflow whose model calls are additionally throttled by an adaptive
+	 * concurrency limiter. Share the limiter between workflow instances calling the
+	 * same provider so they adapt to a single limit.
+	 *
+	 * @param chatClient      the ChatClient to use for LLM interactions
+	 * @param executor        the executor running the model calls. It is not shut down
+	 *                        by this workflow.
+	 * @param inFlightPermits permits bounding the number of concurrent model calls
+	 * @param limiter         the adaptive limiter applied to every model call, or
+	 *                        {@code null} to rely on the fixed limits only
+	 */
+	public ParallelizationlWorkflow(ChatClient chatClient, Executor executor, Semaphore inFlightPermits,
+			AdaptiveConcurrencyLimiter limiter) {
+		this(chatClient, executor, inFlightPermits, limiter, false);
+	}
+
+	/**
+	 * Creates a workflow that can deduplicate identical model calls.
+	 *
+	 * @param chatClient      the ChatClient to use for LLM interactions
+	 * @param executor        the executor running the model calls. It is not shut down
+	 *                        by this workflow.
+	 * @param inFlightPermits permits bounding the number of concurrent model calls
+	 * @param limiter         the adaptive limiter applied to every model call, or
+	 *                        {@code null} to rely on the fixed limits only
+	 * @param singleFlight    whether identical prompt and input pairs share a single
+	 *                        in-flight model call
+	 */
+	public ParallelizationlWorkflow(ChatClient chatClient, Executor executor, Semaphore inFlightPermits,
+			AdaptiveConcurrencyLimiter limiter, boolean singleFlight) {
+		this.dispatcher = new LlmCallDispatcher(chatClient, executor, inFlightPermits, limiter, singleFlight);
+	}
+
+	/**
+	 * @return the dispatcher shared with the workflows built on this instance
+	 */
+	LlmCallDispatcher dispatcher() {
+		return this.dispatcher;
 	}
 
 	/**
-	 * Processes multiple inputs concurrently using a fixed thread pool and the same prompt template.
+	 * Processes multiple inputs concurrently using the shared executor and the same prompt template.
 	 * This method maintains the order of results corresponding to the input order.
 	 *
 	 * @param prompt   The prompt template to use for each input. The input will be appended to this prompt.
 	 *                 Must not be null. Example: "Translate the following text to French:"
 	 * @param inputs   List of input strings to process. Each input will be processed independently
 	 *                 in parallel. Must not be null or empty. Example: ["Hello", "World", "Good morning"]
-	 * @param nWorkers The number of concurrent worker threads to use. This controls the maximum
-	 *                 number of simultaneous LLM API calls. Must be greater than 0. Consider API
-	 *                 rate limits when setting this value.
+	 * @param nWorkers The maximum number of simultaneous LLM API calls for this invocation.
+	 *                 Must be greater than 0. The shared in-flight permits additionally cap
+	 *                 the calls of all concurrent invocations together.
 	 * @return List of processed results in the same order as the inputs. Each result contains
 	 *         the LLM's response for the corresponding input.
 	 * @throws IllegalArgumentException if prompt is null, inputs is null/empty, or nWorkers <= 0
@@ -98,34 +262,275 @@ public class ParallelizationlWorkflow {
 	 *         the specific error details
 	 */
 	public List<String> parallel(String prompt, List<String> inputs, int nWorkers) {
+		return parallel(prompt, inputs, nWorkers, Scheduling.FIFO, FailurePolicy.WAIT_FOR_ALL);
+	}
+
+	/**
+	 * Processes multiple inputs concurrently, dispatching them to the workers in the
+	 * order given by the scheduling policy. This method maintains the order of results
+	 * corresponding to the input order.
+	 *
+	 * @param prompt     The prompt template to use for each input. Must not be null.
+	 * @param inputs     List of input strings to process. Must not be null or empty.
+	 * @param nWorkers   The maximum number of simultaneous LLM API calls for this
+	 *                   invocation. Must be greater than 0.
+	 * @param scheduling The order in which inputs are dispatched to the workers. Must not
+	 *                   be null.
+	 * @return List of processed results in the same order as the inputs
+	 * @throws IllegalArgumentException if an argument is invalid
+	 * @throws RuntimeException if processing fails for any input
+	 */
+	public List<String> parallel(String prompt, List<String> inputs, int nWorkers, Scheduling scheduling) {
+		return parallel(prompt, inputs, nWorkers, scheduling, FailurePolicy.WAIT_FOR_ALL);
+	}
+
+	/**
+	 * Processes multiple inputs concurrently with the given scheduling and failure
+	 * policies. This method maintains the order of results corresponding to the input
+	 * order.
+	 *
+	 * @param prompt        The prompt template to use for each input. Must not be null.
+	 * @param inputs        List of input strings to process. Must not be null or empty.
+	 * @param nWorkers      The maximum number of simultaneous LLM API calls for this
+	 *                      invocation. Must be greater than 0.
+	 * @param scheduling    The order in which inputs are dispatched to the workers. Must
+	 *                      not be null.
+	 * @param failurePolicy Whether to wait for all calls or to cancel the outstanding
+	 *                      calls on the first failure. Must not be null.
+	 * @return List of processed results in the same order as the inputs
+	 * @throws IllegalArgumentException if an argument is invalid
+	 * @throws RuntimeException if processing fails for any input
+	 */
+	public List<String> parallel(String prompt, List<String> inputs, int nWorkers, Scheduling scheduling,
+			FailurePolicy failurePolicy) {
 		Assert.notNull(prompt, "Prompt cannot be null");
 		Assert.notEmpty(inputs, "Inputs list cannot be empty");
 		Assert.isTrue(nWorkers > 0, "Number of workers must be greater than 0");
+		Assert.notNull(scheduling, "Scheduling cannot be null");
+		Assert.notNull(failurePolicy, "Failure policy cannot be null");
+
+		if (dispatcher.singleFlight() && hasDuplicates(inputs)) {
+			return deduplicated(inputs,
+					distinct -> parallel(prompt, distinct, nWorkers, scheduling, failurePolicy));
+		}
+
+		if (scheduling == Scheduling.LONGEST_FIRST) {
+			return parallelLongestFirst(prompt, inputs, nWorkers, failurePolicy);
+		}
+
+		Semaphore workerSlots = new Semaphore(nWorkers);
+
+		List<CompletableFuture<String>> futures = inputs.stream()
+				.map(input -> dispatcher.submit(workerSlots, input, () -> dispatcher.call(prompt, input)))
+				.collect(Collectors.toList());
+
+		// Wait for all tasks to complete
+		LlmCallDispatcher.awaitAll(futures, failurePolicy == FailurePolicy.FAIL_FAST);
+
+		return futures.stream()
+				.map(CompletableFuture::join)
+				.collect(Collectors.toList());
+	}
+
+	private List<String> parallelLongestFirst(String prompt, List<String> inputs, int nWorkers,
+			FailurePolicy failurePolicy) {
+		double[] costs = inputs.stream().mapToDouble(dispatcher::estimateCost).toArray();
+		int[] order = IntStream.range(0, inputs.size())
+				.boxed()
+				.sorted(Comparator.comparingDouble((Integer index) -> costs[index]).reversed())
+				.mapToInt(Integer::intValue)
+				.toArray();
+
+		// Each worker takes the next most expensive input as soon as it becomes free.
+		String[] results = new String[inputs.size()];
+		AtomicInteger next = new AtomicInteger();
+		List<CompletableFuture<Void>> workers = IntStream.range(0, Math.min(nWorkers, inputs.size()))
+				.mapToObj(worker -> dispatcher.<Void>submit(() -> {
+					int position;
+					while ((position = next.getAndIncrement()) < order.length) {
+						int index = order[position];
+						results[index] = dispatcher.call(prompt, inputs.get(index));
+					}
+					return null;
+				}))
+				.toList();
+
+		LlmCallDispatcher.awaitAll(workers, failurePolicy == FailurePolicy.FAIL_FAST);
+
+		return Arrays.asList(results);
+	}
+
+	/**
+	 * Processes multiple inputs concurrently and emits each result as soon as its LLM call
+	 * completes, instead of waiting for the slowest input. Results are emitted in completion
+	 * order and tagged with the index of their input; use {@link #inInputOrder(Flux)} when
+	 * the input order is required.
+	 *
+	 * <p>The calls start on subscription. Cancelling the subscription stops dispatching the
+	 * remaining inputs. The first failing input terminates the stream with an error.</p>
+	 *
+	 * @param prompt   The prompt template to use for each input. Must not be null.
+	 * @param inputs   List of input strings to process. Must not be null or empty.
+	 * @param nWorkers The maximum number of simultaneous LLM API calls for this invocation.
+	 *                 Must be greater than 0.
+	 * @return a Flux emitting one {@link IndexedResult} per input in completion order
+	 * @throws IllegalArgumentException if prompt is null, inputs is null/empty, or nWorkers <= 0
+	 */
+	public Flux<IndexedResult> parallelStream(String prompt, List<String> inputs, int nWorkers) {
+		Assert.notNull(prompt, "Prompt cannot be null");
+		Assert.notEmpty(inputs, "Inputs list cannot be empty");
+		Assert.isTrue(nWorkers > 0, "Number of workers must be greater than 0");
+
+		return Flux.range(0, inputs.size())
+				.flatMap(index -> Mono.fromCallable(
+						() -> new IndexedResult(index, inputs.get(index), dispatcher.call(prompt, inputs.get(index))))
+						.subscribeOn(dispatcher.scheduler()), nWorkers);
+	}
+
+	/**
+	 * Processes an unbounded publisher of inputs concurrently and emits each result as
+	 * soon as its LLM call completes. At most {@code nWorkers} inputs are requested from
+	 * the publisher ahead of their results, so memory stays bounded regardless of the
+	 * number of inputs.
+	 *
+	 * @param prompt   The prompt template to use for each input. Must not be null.
+	 * @param inputs   The publisher of inputs. Must not be null.
+	 * @param nWorkers The maximum number of simultaneous LLM API calls for this invocation.
+	 *                 Must be greater than 0.
+	 * @return a Flux emitting one {@link IndexedResult} per input in completion order,
+	 *         indexed by the position of the input in the publisher's sequence
+	 * @throws IllegalArgumentException if an argument is invalid
+	 */
+	public Flux<IndexedResult> parallelStream(String prompt, Publisher<String> inputs, int nWorkers) {
+		Assert.notNull(prompt, "Prompt cannot be null");
+		Assert.notNull(inputs, "Inputs publisher cannot be null");
+		Assert.isTrue(nWorkers > 0, "Number of workers must be greater than 0");
+
+		return Flux.defer(() -> {
+			AtomicLong nextIndex = new AtomicLong();
+			return Flux.from(inputs)
+					.flatMap(input -> {
+						long index = nextIndex.getAndIncrement();
+						return Mono.fromCallable(() -> new IndexedResult(index, input, dispatcher.call(prompt, input)))
+								.subscribeOn(dispatcher.scheduler());
+					}, nWorkers);
+		});
+	}
+
+	/**
+	 * Processes a stream of inputs concurrently and hands each result to the sink as soon
+	 * as its LLM call completes.
+	 *
+	 * @param prompt     The prompt template to use for each input. Must not be null.
+	 * @param inputs     The stream of inputs. Must not be null. It is closed when
+	 *                   processing ends.
+	 * @param nWorkers   The maximum number of inputs in flight. Must be greater than 0.
+	 * @param resultSink Receives the results in completion order. Must not be null.
+	 * @return the number of processed inputs
+	 * @see #parallel(String, Iterator, int, Consumer)
+	 */
+	public long parallel(String prompt, Stream<String> inputs, int nWorkers, Consumer<IndexedResult> resultSink) {
+		Assert.notNull(inputs, "Inputs stream cannot be null");
+		try (inputs) {
+			return parallel(prompt, inputs.iterator(), nWorkers, resultSink);
+		}
+	}
+
+	/**
+	 * Processes an iterator of inputs concurrently and hands each result to the sink as
+	 * soon as its LLM call completes.
+	 *
+	 * <p>The iterator is only advanced when one of the {@code nWorkers} in-flight slots
+	 * is free, so neither the inputs, the pending calls nor the results of a batch are
+	 * held in memory at once. The sink is invoked by one thread at a time and does not
+	 * need to be thread-safe. After the first failure no further inputs are dispatched,
+	 * and the failure is thrown once the calls in flight have finished.</p>
+	 *
+	 * @param prompt     The prompt template to use for each input. Must not be null.
+	 * @param inputs     The iterator of inputs. Must not be null.
+	 * @param nWorkers   The maximum number of inputs in flight. Must be greater than 0.
+	 * @param resultSink Receives the results in completion order, indexed by the position
+	 *                   of the input in the iteration. Must not be null.
+	 * @return the number of processed inputs
+	 * @throws IllegalArgumentException if an argument is invalid
+	 * @throws RuntimeException if processing fails for any input
+	 */
+	public long parallel(String prompt, Iterator<String> inputs, int nWorkers, Consumer<IndexedResult> resultSink) {
+		Assert.notNull(prompt, "Prompt cannot be null");
+		Assert.notNull(inputs, "Inputs iterator cannot be null");
+		Assert.isTrue(nWorkers > 0, "Number of workers must be greater than 0");
+		Assert.notNull(resultSink, "Result sink cannot be null");
+
+		Semaphore window = new Semaphore(nWorkers);
+		AtomicReference<RuntimeException> failure = new AtomicReference<>();
+		Object sinkLock = new Object();
+		long index = 0;
 
-		ExecutorService executor = Executors.newFixedThreadPool(nWorkers);
 		try {
-			List<CompletableFuture<String>> futures = inputs.stream()
-					.map(input -> CompletableFuture.supplyAsync(() -> {
+			while (failure.get() == null && inputs.hasNext()) {
+				window.acquire();
+				String input = inputs.next();
+				long inputIndex = index++;
+				try {
+					dispatcher.executor().execute(() -> {
 						try {
-							return chatClient.prompt(prompt + "\nInput: " + input).call().content();
-						} catch (Exception e) {
-							throw new RuntimeException("Failed to process input: " + input, e);
+							IndexedResult result = new IndexedResult(inputIndex, input, dispatcher.call(prompt, input));
+							synchronized (sinkLock) {
+								resultSink.accept(result);
+							}
+						} catch (RuntimeException e) {
+							failure.compareAndSet(null, e);
+						} finally {
+							window.release();
 						}
-					}, executor))
-					.collect(Collectors.toList());
+					});
+				} catch (RuntimeException e) {
+					window.release();
+					failure.compareAndSet(null, e);
+				}
+			}
+			// Wait for the calls still in flight.
+			window.acquire(nWorkers);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while processing inputs", e);
+		}
 
-			// Wait for all tasks to complete
-			CompletableFuture<Void> allFutures = CompletableFuture.allOf(
-					futures.toArray(CompletableFuture[]::new));
-			allFutures.join();
+		if (failure.get() != null) {
+			throw failure.get();
+		}
+		return index;
+	}
 
-			return futures.stream()
-					.map(CompletableFuture::join)
-					.collect(Collectors.toList());
+	/**
+	 * Collects the results of {@link #parallelStream(String, List, int)} back into the
+	 * order of the original inputs.
+	 *
+	 * @param results the completion-order results
+	 * @return a Mono emitting the outputs in the same order as the inputs
+	 */
+	public static Mono<List<String>> inInputOrder(Flux<IndexedResult> results) {
+		return results.collectSortedList(Comparator.comparingLong(IndexedResult::index))
+				.map(sorted -> sorted.stream().map(IndexedResult::output).toList());
+	}
 
-		} finally {
-			executor.shutdown();
-		}
+
+	private static boolean hasDuplicates(List<String> inputs) {
+		return inputs.stream().distinct().count() < inputs.size();
+	}
+
+	/**
+	 * Processes only the distinct inputs and copies each shared result into the slot of
+	 * every duplicate.
+	 */
+	private static List<String> deduplicated(List<String> inputs,
+			Function<List<String>, List<String>> processor) {
+		Map<String, Integer> distinctIndex = new LinkedHashMap<>();
+		inputs.forEach(input -> distinctIndex.putIfAbsent(input, distinctIndex.size()));
+		List<String> distinctResults = processor.apply(new ArrayList<>(distinctIndex.keySet()));
+		return inputs.stream()
+				.map(input -> distinctResults.get(distinctIndex.get(input)))
+				.collect(Collectors.toList());
 	}
 
 }
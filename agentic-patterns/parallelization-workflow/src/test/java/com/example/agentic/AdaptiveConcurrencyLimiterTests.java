@@ -0,0 +1,123 @@
+/*
+* Copyright 2024 - 2024 the original author or authors.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* https://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.example.agentic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests for {@link AdaptiveConcurrencyLimiter}.
+ *
+ * @author Christian Tzolov
+ */
+class AdaptiveConcurrencyLimiterTests {
+
+	@Test
+	void growsWhileSaturatedCallsSucceed() throws InterruptedException {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 1, 8);
+
+		for (int round = 0; round < 10; round++) {
+			List<AdaptiveConcurrencyLimiter.Permit> permits = new ArrayList<>();
+			for (int i = 0; i < limiter.getLimit(); i++) {
+				permits.add(limiter.acquire());
+			}
+			permits.forEach(permit -> succeed(permit, 1));
+		}
+
+		assertThat(limiter.getLimit()).isGreaterThan(2);
+		assertThat(limiter.getInFlight()).isZero();
+	}
+
+	@Test
+	void backsOffWhenTheProviderIsOverloaded() throws InterruptedException {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(8, 1, 16);
+
+		limiter.acquire().failure(new RuntimeException("Failed to process input: x", new TimeoutException()));
+
+		assertThat(limiter.getLimit()).isEqualTo(4);
+	}
+
+	@Test
+	void keepsTheLimitOnOtherFailures() throws InterruptedException {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(8, 1, 16);
+
+		limiter.acquire().failure(new IllegalArgumentException("Invalid request"));
+		limiter.acquire().ignore();
+
+		assertThat(limiter.getLimit()).isEqualTo(8);
+		assertThat(limiter.getInFlight()).isZero();
+	}
+
+	@Test
+	void singleSlowCallDoesNotShrinkTheLimit() throws InterruptedException {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(8, 1, 16);
+		completeWindow(limiter, 1);
+
+		for (int i = 0; i < 15; i++) {
+			succeed(limiter.acquire(), 1);
+		}
+		succeed(limiter.acquire(), 100);
+
+		assertThat(limiter.getLimit()).isEqualTo(8);
+	}
+
+	@Test
+	void slowWindowShrinksTheLimit() throws InterruptedException {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(8, 1, 16);
+		completeWindow(limiter, 1);
+
+		completeWindow(limiter, 10);
+
+		assertThat(limiter.getLimit()).isEqualTo(4);
+	}
+
+	@Test
+	void waitingBeforeTheCallIsStartedIsNoLatency() throws InterruptedException {
+		AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(8, 1, 16);
+		completeWindow(limiter, 1);
+
+		for (int i = 0; i < 16; i++) {
+			AdaptiveConcurrencyLimiter.Permit permit = limiter.acquire();
+			// e.g. waiting for a rate limit after the permit was acquired
+			Thread.sleep(10);
+			succeed(permit, 1);
+		}
+
+		assertThat(limiter.getLimit()).isEqualTo(8);
+	}
+
+	private static void completeWindow(AdaptiveConcurrencyLimiter limiter, long latencyMillis)
+			throws InterruptedException {
+		for (int i = 0; i < 16; i++) {
+			succeed(limiter.acquire(), latencyMillis);
+		}
+	}
+
+	/**
+	 * Completes the permit as if its call had been sent the given time ago.
+	 */
+	private static void succeed(AdaptiveConcurrencyLimiter.Permit permit, long latencyMillis) {
+		permit.started(System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(latencyMillis));
+		permit.success();
+	}
+
+}
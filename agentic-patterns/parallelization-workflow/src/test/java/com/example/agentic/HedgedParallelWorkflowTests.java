@@ -0,0 +1,114 @@
+/*
+* Copyright 2024 - 2024 the original author or authors.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* https://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.example.agentic;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import com.example.agentic.HedgedParallelWorkflow.Outcome;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.model.ChatModel;
+
+import static com.example.agentic.ParallelizationlWorkflowTests.input;
+import static com.example.agentic.ParallelizationlWorkflowTests.response;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests for {@link HedgedParallelWorkflow} with a stubbed {@link ChatModel}.
+ *
+ * @author Christian Tzolov
+ */
+class HedgedParallelWorkflowTests {
+
+	private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+	@AfterEach
+	void shutdown() {
+		this.executor.shutdownNow();
+	}
+
+	@Test
+	void hedgesACallSlowerThanTheBatch() throws InterruptedException {
+		AtomicInteger slowCalls = new AtomicInteger();
+		CountDownLatch primaryCancelled = new CountDownLatch(1);
+		ChatModel chatModel = prompt -> {
+			String input = input(prompt.getContents());
+			if (input.equals("slow") && slowCalls.incrementAndGet() == 1) {
+				sleep(TimeUnit.SECONDS.toMillis(10), primaryCancelled);
+			}
+			return response("answer " + input);
+		};
+		HedgedParallelWorkflow workflow = workflow(chatModel);
+
+		List<Outcome> outcomes = workflow.parallel("Process", List.of("1", "2", "3", "4", "5", "slow"), 6,
+				Duration.ofSeconds(5), 0.95);
+
+		assertThat(outcomes.get(5)).isEqualTo(new Outcome.Success(5, "slow", "answer slow", true));
+		assertThat(slowCalls.get()).isEqualTo(2);
+		assertThat(primaryCancelled.await(5, TimeUnit.SECONDS)).isTrue();
+		assertThat(outcomes.subList(0, 5)).containsExactly(new Outcome.Success(0, "1", "answer 1", false),
+				new Outcome.Success(1, "2", "answer 2", false), new Outcome.Success(2, "3", "answer 3", false),
+				new Outcome.Success(3, "4", "answer 4", false), new Outcome.Success(4, "5", "answer 5", false));
+	}
+
+	@Test
+	void reportsTimeoutsAndFailuresPerInput() {
+		ChatModel chatModel = prompt -> {
+			String input = input(prompt.getContents());
+			if (input.equals("bad")) {
+				throw new IllegalStateException("Invalid input");
+			}
+			if (input.equals("slow")) {
+				sleep(TimeUnit.SECONDS.toMillis(10), new CountDownLatch(1));
+			}
+			return response("answer " + input);
+		};
+		HedgedParallelWorkflow workflow = workflow(chatModel);
+
+		List<Outcome> outcomes = workflow.parallel("Process", List.of("good", "bad", "slow"), 3,
+				Duration.ofMillis(300));
+
+		assertThat(outcomes.get(0)).isEqualTo(new Outcome.Success(0, "good", "answer good", false));
+		assertThat(outcomes.get(1)).isInstanceOf(Outcome.Failure.class);
+		assertThat(((Outcome.Failure) outcomes.get(1)).error()).hasMessageContaining("Failed to process input: bad");
+		assertThat(outcomes.get(2)).isEqualTo(new Outcome.TimedOut(2, "slow", Duration.ofMillis(300)));
+	}
+
+	private HedgedParallelWorkflow workflow(ChatModel chatModel) {
+		return new HedgedParallelWorkflow(
+				new ParallelizationlWorkflow(ChatClient.create(chatModel), this.executor, new Semaphore(8)));
+	}
+
+	private static void sleep(long millis, CountDownLatch interrupted) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			interrupted.countDown();
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted", e);
+		}
+	}
+
+}
@@ -0,0 +1,109 @@
+/*
+* Copyright 2024 - 2024 the original author or authors.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* https://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.example.agentic;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.model.ChatModel;
+
+import static com.example.agentic.ParallelizationlWorkflowTests.response;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests for {@link LlmCallDispatcher} with a stubbed {@link ChatModel}.
+ *
+ * @author Christian Tzolov
+ */
+class LlmCallDispatcherTests {
+
+	private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+	@AfterEach
+	void shutdown() {
+		this.executor.shutdownNow();
+	}
+
+	@Test
+	void joinedCallTakesOverWhenTheLeadingCallIsCancelled() throws Exception {
+		AtomicInteger modelCalls = new AtomicInteger();
+		CountDownLatch leaderCalling = new CountDownLatch(1);
+		ChatModel chatModel = prompt -> {
+			if (modelCalls.incrementAndGet() == 1) {
+				leaderCalling.countDown();
+				try {
+					Thread.sleep(TimeUnit.SECONDS.toMillis(10));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException("Interrupted", e);
+				}
+			}
+			return response("answer");
+		};
+		LlmCallDispatcher dispatcher = new LlmCallDispatcher(ChatClient.create(chatModel), this.executor,
+				new Semaphore(4), null, true);
+
+		CompletableFuture<String> leader = dispatcher.submit(() -> dispatcher.call("Process", "input"));
+		assertThat(leaderCalling.await(5, TimeUnit.SECONDS)).isTrue();
+		// A call joining a flight is notified of its start right away.
+		CountDownLatch joined = new CountDownLatch(1);
+		CompletableFuture<String> joiner = dispatcher
+			.submit(() -> dispatcher.call("Process", "input", started -> joined.countDown()));
+		assertThat(joined.await(5, TimeUnit.SECONDS)).isTrue();
+
+		leader.cancel(true);
+
+		assertThat(joiner.get(5, TimeUnit.SECONDS)).isEqualTo("answer");
+		assertThat(modelCalls.get()).isEqualTo(2);
+	}
+
+	@Test
+	void reportsWhenTheRequestIsPassedToTheModel() {
+		AtomicLong modelCalled = new AtomicLong();
+		ChatModel chatModel = prompt -> {
+			modelCalled.set(System.nanoTime());
+			return response("answer");
+		};
+		LlmCallDispatcher dispatcher = new LlmCallDispatcher(ChatClient.create(chatModel), this.executor,
+				new Semaphore(1), new AdaptiveConcurrencyLimiter(1, 1, 1), false);
+		AtomicLong started = new AtomicLong();
+
+		String content = dispatcher.callModel("Process", "input", started::set);
+
+		assertThat(content).isEqualTo("answer");
+		assertThat(started.get()).isPositive();
+		assertThat(started.get()).isLessThanOrEqualTo(modelCalled.get());
+	}
+
+	@Test
+	void groupsInputsBySizeAndTokens() {
+		List<List<String>> groups = LlmCallDispatcher.group(List.of("a", "b", "c", "x".repeat(400), "d"), 2, 50);
+
+		assertThat(groups).containsExactly(List.of("a", "b"), List.of("c"), List.of("x".repeat(400)), List.of("d"));
+	}
+
+}
@@ -0,0 +1,115 @@
+/*
+* Copyright 2024 - 2024 the original author or authors.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* https://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.example.agentic;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Tests for {@link ParallelizationlWorkflow} with a stubbed {@link ChatModel}.
+ *
+ * @author Christian Tzolov
+ */
+class ParallelizationlWorkflowTests {
+
+	private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+	@AfterEach
+	void shutdown() {
+		this.executor.shutdownNow();
+	}
+
+	@Test
+	void returnsTheResultsInInputOrder() {
+		ChatModel chatModel = prompt -> response("echo " + input(prompt.getContents()));
+		ParallelizationlWorkflow workflow = new ParallelizationlWorkflow(ChatClient.create(chatModel),
+				this.executor, new Semaphore(4));
+
+		List<String> results = workflow.parallel("Repeat", List.of("a", "b", "c"), 2);
+
+		assertThat(results).containsExactly("echo a", "echo b", "echo c");
+	}
+
+	@Test
+	void singleFlightCallsTheModelOncePerDistinctInput() {
+		AtomicInteger modelCalls = new AtomicInteger();
+		ChatModel chatModel = prompt -> {
+			modelCalls.incrementAndGet();
+			return response("echo " + input(prompt.getContents()));
+		};
+		ParallelizationlWorkflow workflow = new ParallelizationlWorkflow(ChatClient.create(chatModel),
+				this.executor, new Semaphore(4), null, true);
+
+		List<String> results = workflow.parallel("Repeat", List.of("a", "b", "a", "a"), 4);
+
+		assertThat(results).containsExactly("echo a", "echo b", "echo a", "echo a");
+		assertThat(modelCalls.get()).isEqualTo(2);
+	}
+
+	@Test
+	void failFastCancelsTheOutstandingCalls() throws InterruptedException {
+		CountDownLatch interrupted = new CountDownLatch(2);
+		ChatModel chatModel = prompt -> {
+			if (input(prompt.getContents()).equals("bad")) {
+				throw new IllegalStateException("Invalid input");
+			}
+			try {
+				Thread.sleep(TimeUnit.SECONDS.toMillis(10));
+			} catch (InterruptedException e) {
+				interrupted.countDown();
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted", e);
+			}
+			return response("too late");
+		};
+		ParallelizationlWorkflow workflow = new ParallelizationlWorkflow(ChatClient.create(chatModel),
+				this.executor, new Semaphore(4));
+		long start = System.nanoTime();
+
+		assertThatThrownBy(() -> workflow.parallel("Process", List.of("slow 1", "bad", "slow 2"), 3,
+				ParallelizationlWorkflow.Scheduling.FIFO, ParallelizationlWorkflow.FailurePolicy.FAIL_FAST))
+			.hasMessageContaining("Failed to process input: bad");
+
+		assertThat(System.nanoTime() - start).isLessThan(TimeUnit.SECONDS.toNanos(5));
+		assertThat(interrupted.await(5, TimeUnit.SECONDS)).isTrue();
+	}
+
+	static String input(String contents) {
+		return contents.substring(contents.lastIndexOf("Input: ") + "Input: ".length());
+	}
+
+	static ChatResponse response(String text) {
+		return new ChatResponse(List.of(new Generation(new AssistantMessage(text))));
+	}
+
+}
@@ -16,10 +16,14 @@
 */
 package com.example.agentic;
 
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
@@ -35,8 +39,57 @@ public class Application {
 		SpringApplication.run(Application.class, args);
 	}
 
+	@Bean(destroyMethod = "close")
+	public ExecutorService llmCallExecutor() {
+		return Executors.newVirtualThreadPerTaskExecutor();
+	}
+
+	@Bean
+	public RoutingDecisionCache routingDecisionCache(@Value("${routing.cache.max-entries:10000}") int maxEntries,
+			@Value("${routing.cache.ttl:1h}") Duration ttl,
+			@Value("${routing.cache.max-hamming-distance:6}") int maxHammingDistance) {
+		return new RoutingDecisionCache(maxEntries, ttl, maxHammingDistance);
+	}
+
+	@Bean
+	public LocalRouteClassifier localRouteClassifier() {
+		return new LocalRouteClassifier(Map.of(
+				"billing", List.of(
+						"Why did my subscription renewal cost more than last year?",
+						"Please send me a receipt for last month's payment",
+						"The invoice lists a tax amount I did not expect",
+						"I cancelled my subscription but was still charged for the next month",
+						"Do you offer annual billing with a discount?",
+						"My card payment was declined although the card is valid"),
+				"technical", List.of(
+						"The mobile app freezes on the loading screen after the update",
+						"Webhooks stopped firing and our integration receives no events",
+						"Uploading large attachments fails with a network error",
+						"Search returns no results even for items I just created",
+						"Notifications arrive several hours late",
+						"The browser extension shows a blank popup in Firefox"),
+				"account", List.of(
+						"I lost the phone I use for two-factor codes",
+						"The password reset email never arrives",
+						"Someone else may have signed in to my profile, how do I secure it?",
+						"Please transfer ownership of my workspace to a colleague",
+						"How do I delete my user profile and personal data?",
+						"My login session expires every few minutes"),
+				"product", List.of(
+						"Which report types are available in the analytics module?",
+						"Can I create custom fields for tasks?",
+						"Is there a shortcut to duplicate a board with all its columns?",
+						"How do recurring tasks work?",
+						"Can I export a board as a spreadsheet?",
+						"Which calendar apps can I connect to my workspace?")));
+	}
+
 	@Bean
-	public CommandLineRunner commandLineRunner(ChatClient.Builder chatClientBuilder) {
+	public CommandLineRunner commandLineRunner(ChatClient.Builder chatClientBuilder,
+			LocalRouteClassifier localRouteClassifier,
+			ExecutorService llmCallExecutor, RoutingDecisionCache routingDecisionCache,
+			@Value("${routing.local.confidence-threshold:0.6}") double confidenceThreshold,
+			@Value("${routing.speculative.extra-call-budget:0}") double extraCallBudget) {
 		
 		return args -> {
 			Map<String, String> supportRoutes = Map.of("billing",
@@ -113,7 +166,8 @@ public class Application {
 							Best regards,
 							Mike""");
 
-			var routerWorkflow = new RoutingWorkflow(chatClientBuilder.build());
+			var routerWorkflow = new RoutingWorkflow(chatClientBuilder.build(),
+					localRouteClassifier, confidenceThreshold, llmCallExecutor, routingDecisionCache);
 
 			int i = 1;
 			for (String ticket : tickets) {
@@ -121,7 +175,9 @@ public class Application {
 				System.out.println("------------------------------------------------------------");
 				System.out.println(ticket);
 				System.out.println("------------------------------------------------------------");
-				System.out.println(routerWorkflow.route(ticket, supportRoutes));
+				System.out.println((extraCallBudget > 0)
+						? routerWorkflow.routeSpeculatively(ticket, supportRoutes, extraCallBudget)
+						: routerWorkflow.route(ticket, supportRoutes));
 			}
 
 		};
@@ -0,0 +1,40 @@
+/* 
+* Copyright 2024 - 2024 the original author or authors.
+* 
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+* 
+* https://www.apache.org/licenses/LICENSE-2.0
+* 
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.example.agentic;
+
+import java.util.List;
+
+/**
+ * Record representing the response of a batch routing classification, in which the
+ * LLM selects a route for every input of a group in a single call.
+ *
+ * @param selections the selected route of every input in the group
+ *
+ * @author Christian Tzolov
+ * @see RoutingWorkflow#routeAll(List, java.util.Map)
+ */
+public record BatchRoutingResponse(List<Selection> selections) {
+
+	/**
+	 * The route selected for a single input.
+	 *
+	 * @param id        the id of the input within its group
+	 * @param selection the name of the selected route
+	 */
+	public record Selection(int id, String selection) {
+	}
+
+}
@@ -0,0 +1,209 @@
+/*
+* Copyright 2024 - 2024 the original author or authors.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* https://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.example.agentic;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.springframework.util.Assert;
+
+/**
+ * Local first-stage route classifier: a TF-IDF nearest-centroid model trained from
+ * labeled example inputs of every route.
+ *
+ * <p>
+ * Every example is turned into a TF-IDF vector over its words. The centroid of a
+ * route is the normalized mean of its examples' vectors, and an input is assigned to
+ * the route whose centroid has the highest cosine similarity with the input's
+ * vector. Classifying an input takes microseconds and needs no model call, so the
+ * {@link RoutingWorkflow} only asks the LLM selector when the local confidence is too
+ * low.
+ *
+ * <p>
+ * The confidence is the share of the best similarity in the sum of all similarities
+ * plus a smoothing constant. It is high when one route clearly dominates and stays
+ * low both for ambiguous inputs and for inputs sharing only a few words with the
+ * examples. Words that occur in no example still count towards the length of the
+ * input's vector, so a long input matching a route in a single word has a low
+ * similarity with it.
+ *
+ * @author Christian Tzolov
+ * @see RoutingWorkflow
+ */
+public class LocalRouteClassifier {
+
+	/**
+	 * Similarity mass added to the denominator of the confidence, so that a weak
+	 * match with a single route does not reach a high confidence. With this value an
+	 * input must have a cosine similarity of about 0.4 with a single route to reach a
+	 * confidence of 0.6, which takes a close paraphrase of the examples rather than a
+	 * single shared word.
+	 */
+	private static final double CONFIDENCE_SMOOTHING = 0.25;
+
+	private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+	private static final Set<String> STOP_WORDS = Set.of("a", "an", "and", "are", "as", "at", "be", "but", "by",
+			"can", "could", "do", "for", "from", "has", "have", "hi", "hello", "how", "i", "if", "in", "is", "it",
+			"its", "me", "my", "of", "on", "or", "our", "please", "so", "that", "the", "this", "to", "was", "we",
+			"what", "with", "you", "your");
+
+	private final Map<String, Double> idf;
+
+	private final double unknownTermIdf;
+
+	private final Map<String, Map<String, Double>> centroids;
+
+	/**
+	 * The result of a local classification.
+	 *
+	 * @param route      the classified route
+	 * @param confidence the confidence of the classification, between 0 and 1
+	 */
+	public record Classification(String route, double confidence) {
+	}
+
+	/**
+	 * Trains the classifier.
+	 *
+	 * @param examples labeled example inputs for every route key
+	 */
+	public LocalRouteClassifier(Map<String, List<String>> examples) {
+		Assert.notEmpty(examples, "Examples must not be empty");
+		examples.forEach((route, routeExamples) -> Assert.notEmpty(routeExamples,
+				"Route '" + route + "' must have at least one example"));
+
+		// Document frequency of every term over all examples.
+		Map<String, Integer> documentFrequency = new HashMap<>();
+		int documents = 0;
+		for (List<String> routeExamples : examples.values()) {
+			for (String example : routeExamples) {
+				termFrequencies(example).keySet().forEach(term -> documentFrequency.merge(term, 1, Integer::sum));
+				documents++;
+			}
+		}
+		this.idf = new HashMap<>();
+		for (Map.Entry<String, Integer> entry : documentFrequency.entrySet()) {
+			this.idf.put(entry.getKey(), idf(documents, entry.getValue()));
+		}
+		this.unknownTermIdf = idf(documents, 0);
+
+		this.centroids = new LinkedHashMap<>();
+		examples.forEach((route, routeExamples) -> {
+			Map<String, Double> centroid = new HashMap<>();
+			for (String example : routeExamples) {
+				vectorize(example).forEach((term, weight) -> centroid.merge(term, weight, Double::sum));
+			}
+			this.centroids.put(route, normalize(centroid));
+		});
+	}
+
+	/**
+	 * @return the route keys known to the classifier
+	 */
+	public Set<String> routes() {
+		return this.centroids.keySet();
+	}
+
+	/**
+	 * Classifies an input.
+	 *
+	 * @param input the input to classify
+	 * @return the most similar route and the confidence of the classification
+	 */
+	public Classification classify(String input) {
+		return rank(input).get(0);
+	}
+
+	/**
+	 * Ranks all routes for an input. The confidence of every route is its share of
+	 * the smoothed similarity mass, so the confidences of all routes sum up to less
+	 * than 1 and can be used as route probabilities.
+	 *
+	 * @param input the input to classify
+	 * @return all routes ordered from the most to the least similar
+	 */
+	public List<Classification> rank(String input) {
+		Assert.notNull(input, "Input must not be null");
+
+		Map<String, Double> vector = vectorize(input);
+		Map<String, Double> similarities = new LinkedHashMap<>();
+		double totalSimilarity = 0;
+		for (Map.Entry<String, Map<String, Double>> entry : this.centroids.entrySet()) {
+			double similarity = dot(vector, entry.getValue());
+			similarities.put(entry.getKey(), similarity);
+			totalSimilarity += similarity;
+		}
+
+		List<Classification> ranking = new ArrayList<>();
+		for (Map.Entry<String, Double> entry : similarities.entrySet()) {
+			ranking.add(new Classification(entry.getKey(), entry.getValue() / (totalSimilarity + CONFIDENCE_SMOOTHING)));
+		}
+		ranking.sort(Comparator.comparingDouble(Classification::confidence).reversed());
+		return ranking;
+	}
+
+	/**
+	 * Turns a text into a normalized TF-IDF vector. Terms that do not occur in any
+	 * example are weighted like the rarest known terms. They never match a centroid,
+	 * but they count towards the norm, so an input sharing only a word or two with the
+	 * examples gets a low similarity with every route.
+	 */
+	private Map<String, Double> vectorize(String text) {
+		Map<String, Double> vector = new HashMap<>();
+		termFrequencies(text).forEach((term, count) -> vector.put(term,
+				(1.0 + Math.log(count)) * this.idf.getOrDefault(term, this.unknownTermIdf)));
+		return normalize(vector);
+	}
+
+	private static double idf(int documents, int documentFrequency) {
+		return Math.log((1.0 + documents) / (1.0 + documentFrequency)) + 1.0;
+	}
+
+	private static Map<String, Integer> termFrequencies(String text) {
+		Map<String, Integer> frequencies = new HashMap<>();
+		for (String token : NON_WORD.split(text.toLowerCase(Locale.ROOT))) {
+			if (token.length() > 1 && !STOP_WORDS.contains(token)) {
+				frequencies.merge(token, 1, Integer::sum);
+			}
+		}
+		return frequencies;
+	}
+
+	private static Map<String, Double> normalize(Map<String, Double> vector) {
+		double norm = Math.sqrt(vector.values().stream().mapToDouble(weight -> weight * weight).sum());
+		if (norm > 0) {
+			vector.replaceAll((term, weight) -> weight / norm);
+		}
+		return vector;
+	}
+
+	private static double dot(Map<String, Double> sparse, Map<String, Double> dense) {
+		double dot = 0;
+		for (Map.Entry<String, Double> entry : sparse.entrySet()) {
+			dot += entry.getValue() * dense.getOrDefault(entry.getKey(), 0.0);
+		}
+		return dot;
+	}
+
+}
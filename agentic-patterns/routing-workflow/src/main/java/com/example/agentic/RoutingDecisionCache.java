@@ -0,0 +1,311 @@
+/*
+* Copyright 2024 - 2024 the original author or authors.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* https://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.example.agentic;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import org.springframework.util.Assert;
+
+/**
+ * Bounded cache of the route selections of a {@link RoutingWorkflow}, so repeated and
+ * templated inputs skip the LLM selector call.
+ *
+ * <p>
+ * Lookups try two keys. The first is the normalized input: lowercase words without
+ * punctuation, with every number replaced by {@code 0} and with collapsed whitespace.
+ * The second is a 64-bit SimHash of the normalized words. An input whose SimHash
+ * differs from a cached one in at most {@code maxHammingDistance} bits is treated as a
+ * near duplicate. Candidate near duplicates are found through eight 8-bit bands of the
+ * SimHash. Two hashes within a distance of 7 always share at least one band, so a
+ * lookup only compares against entries sharing a band.
+ *
+ * <p>
+ * Entries expire after the time to live, and the least recently used entry is evicted
+ * when the cache is full. Exact hits, near-duplicate hits and misses are published as
+ * the {@code routing.cache.lookups} counter with a {@code result} tag when the cache is
+ * registered as a bean.
+ *
+ * @author Christian Tzolov
+ * @see RoutingWorkflow
+ */
+public class RoutingDecisionCache implements MeterBinder {
+
+	private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+	private static final Pattern NUMBER = Pattern.compile("\\p{N}+");
+
+	private static final int BANDS = 8;
+
+	private static final int BAND_BITS = 64 / BANDS;
+
+	private final int maxEntries;
+
+	private final long ttlNanos;
+
+	private final int maxHammingDistance;
+
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	private final List<Map<Integer, Set<String>>> bands = new ArrayList<>();
+
+	private final AtomicLong exactHits = new AtomicLong();
+
+	private final AtomicLong similarHits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * A cached selection.
+	 */
+	private record Entry(String selection, long simHash, long expiresAtNanos) {
+	}
+
+	/**
+	 * Creates a cache matching near duplicates within a Hamming distance of 6.
+	 *
+	 * @param maxEntries the maximum number of cached selections
+	 * @param ttl        the time to live of a cached selection
+	 */
+	public RoutingDecisionCache(int maxEntries, Duration ttl) {
+		this(maxEntries, ttl, 6);
+	}
+
+	/**
+	 * Creates a cache.
+	 *
+	 * @param maxEntries         the maximum number of cached selections
+	 * @param ttl                the time to live of a cached selection
+	 * @param maxHammingDistance the maximum number of differing SimHash bits of a near
+	 *                           duplicate, between 0 and 7, or -1 to disable
+	 *                           near-duplicate matching
+	 */
+	public RoutingDecisionCache(int maxEntries, Duration ttl, int maxHammingDistance) {
+		Assert.isTrue(maxEntries > 0, "Max entries must be greater than 0");
+		Assert.isTrue(ttl != null && !ttl.isNegative() && !ttl.isZero(), "TTL must be positive");
+		Assert.isTrue(maxHammingDistance >= -1 && maxHammingDistance < BANDS,
+				"Max Hamming distance must be between -1 and " + (BANDS - 1));
+
+		this.maxEntries = maxEntries;
+		this.ttlNanos = ttl.toNanos();
+		this.maxHammingDistance = maxHammingDistance;
+		for (int band = 0; band < BANDS; band++) {
+			this.bands.add(new HashMap<>());
+		}
+	}
+
+	/**
+	 * Looks up the selection of an input.
+	 *
+	 * @param input           the input to route
+	 * @param availableRoutes the routes the selection must belong to
+	 * @return the cached selection of the same or a near-duplicate input, or
+	 *         {@code null} on a miss
+	 */
+	public synchronized String get(String input, Set<String> availableRoutes) {
+		String key = normalize(input);
+		long now = System.nanoTime();
+
+		Entry entry = live(key, now);
+		if (entry != null && availableRoutes.contains(entry.selection())) {
+			this.exactHits.incrementAndGet();
+			return entry.selection();
+		}
+
+		if (this.maxHammingDistance >= 0) {
+			long simHash = simHash(key);
+			for (String candidate : candidates(simHash)) {
+				Entry similar = live(candidate, now);
+				if (similar != null && Long.bitCount(similar.simHash() ^ simHash) <= this.maxHammingDistance
+						&& availableRoutes.contains(similar.selection())) {
+					this.similarHits.incrementAndGet();
+					return similar.selection();
+				}
+			}
+		}
+
+		this.misses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Caches the selection of an input.
+	 *
+	 * @param input     the routed input
+	 * @param selection the selected route
+	 */
+	public synchronized void put(String input, String selection) {
+		Assert.notNull(selection, "Selection must not be null");
+
+		String key = normalize(input);
+		remove(key);
+		long simHash = simHash(key);
+		this.entries.put(key, new Entry(selection, simHash, System.nanoTime() + this.ttlNanos));
+		for (int band = 0; band < BANDS; band++) {
+			this.bands.get(band).computeIfAbsent(band(simHash, band), b -> new HashSet<>()).add(key);
+		}
+
+		if (this.entries.size() > this.maxEntries) {
+			remove(this.entries.keySet().iterator().next());
+		}
+	}
+
+	/**
+	 * @return the number of lookups served by an entry with the same normalized input
+	 */
+	public long getExactHits() {
+		return this.exactHits.get();
+	}
+
+	/**
+	 * @return the number of lookups served by a near-duplicate entry
+	 */
+	public long getSimilarHits() {
+		return this.similarHits.get();
+	}
+
+	/**
+	 * @return the number of lookups without a usable entry
+	 */
+	public long getMisses() {
+		return this.misses.get();
+	}
+
+	/**
+	 * @return the number of cached selections, including expired ones not yet evicted
+	 */
+	public synchronized int size() {
+		return this.entries.size();
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		FunctionCounter.builder("routing.cache.lookups", this.exactHits, AtomicLong::get)
+				.description("Routing decision cache lookups")
+				.tag("result", "exact-hit")
+				.register(registry);
+		FunctionCounter.builder("routing.cache.lookups", this.similarHits, AtomicLong::get)
+				.description("Routing decision cache lookups")
+				.tag("result", "similar-hit")
+				.register(registry);
+		FunctionCounter.builder("routing.cache.lookups", this.misses, AtomicLong::get)
+				.description("Routing decision cache lookups")
+				.tag("result", "miss")
+				.register(registry);
+	}
+
+	/**
+	 * @return the entry of the key, or {@code null} if it is missing or expired
+	 */
+	private Entry live(String key, long now) {
+		Entry entry = this.entries.get(key);
+		if (entry != null && now - entry.expiresAtNanos() > 0) {
+			remove(key);
+			return null;
+		}
+		return entry;
+	}
+
+	private List<String> candidates(long simHash) {
+		Set<String> candidates = new HashSet<>();
+		for (int band = 0; band < BANDS; band++) {
+			Set<String> keys = this.bands.get(band).get(band(simHash, band));
+			if (keys != null) {
+				candidates.addAll(keys);
+			}
+		}
+		return new ArrayList<>(candidates);
+	}
+
+	private void remove(String key) {
+		Entry entry = this.entries.remove(key);
+		if (entry == null) {
+			return;
+		}
+		for (int band = 0; band < BANDS; band++) {
+			Map<Integer, Set<String>> index = this.bands.get(band);
+			int value = band(entry.simHash(), band);
+			Set<String> keys = index.get(value);
+			if (keys != null) {
+				keys.remove(key);
+				if (keys.isEmpty()) {
+					index.remove(value);
+				}
+			}
+		}
+	}
+
+	private static int band(long simHash, int band) {
+		return (int) ((simHash >>> (band * BAND_BITS)) & ((1 << BAND_BITS) - 1));
+	}
+
+	static String normalize(String input) {
+		String words = NON_WORD.matcher(input.toLowerCase(Locale.ROOT)).replaceAll(" ").strip();
+		return NUMBER.matcher(words).replaceAll("0");
+	}
+
+	/**
+	 * Computes the 64-bit SimHash of the words of a normalized input.
+	 */
+	static long simHash(String normalized) {
+		int[] weights = new int[64];
+		for (String word : normalized.split(" ")) {
+			long hash = hash(word);
+			for (int bit = 0; bit < 64; bit++) {
+				weights[bit] += ((hash >>> bit) & 1) == 1 ? 1 : -1;
+			}
+		}
+		long simHash = 0;
+		for (int bit = 0; bit < 64; bit++) {
+			if (weights[bit] > 0) {
+				simHash |= 1L << bit;
+			}
+		}
+		return simHash;
+	}
+
+	/**
+	 * FNV-1a hash of a word, mixed with the MurmurHash3 finalizer so every bit
+	 * depends on every character.
+	 */
+	private static long hash(String word) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < word.length(); i++) {
+			hash ^= word.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+}
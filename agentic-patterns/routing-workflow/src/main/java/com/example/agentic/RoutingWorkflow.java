@@ -15,7 +15,19 @@
 */
 package com.example.agentic;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
 
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.util.Assert;
@@ -56,6 +68,23 @@ import org.springframework.util.Assert;
  * with each route having its own specialized prompt optimized for specific
  * types of input.
  * 
+ * <p>
+ * An optional {@link LocalRouteClassifier} acts as a first stage: inputs it
+ * classifies with enough confidence are routed without the LLM selector call,
+ * which removes one serialized LLM round trip from most requests. Only uncertain
+ * inputs fall back to the LLM selector. An optional {@link RoutingDecisionCache}
+ * reuses the selections of identical and near-duplicate inputs.
+ * 
+ * <p>
+ * For latency-critical callers, {@link #routeSpeculatively(String, Map, double)}
+ * starts the most likely routed calls while the LLM selector is still running and
+ * keeps the one matching the selection, so a correct guess costs roughly one LLM
+ * latency instead of two.
+ * 
+ * <p>
+ * For queues of inputs, {@link #routeAll(List, Map)} classifies many inputs in a
+ * single selector call and runs the routed calls concurrently.
+ * 
  * <p/>
  * Implementation uses the <a href=
  * "https://docs.spring.io/spring-ai/reference/1.0/api/structured-output-converter.html">Spring
@@ -77,10 +106,100 @@ import org.springframework.util.Assert;
  */
 public class RoutingWorkflow {
 
+    /**
+     * JVM-wide virtual thread executor used when no executor is provided.
+     */
+    private static final ExecutorService SHARED_EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * Default upper bound of the estimated input tokens classified in one batch
+     * selector call.
+     */
+    public static final int DEFAULT_MAX_GROUP_TOKENS = 4_000;
+
+    /**
+     * Default maximum number of concurrent LLM calls of a batch.
+     */
+    public static final int DEFAULT_MAX_CONCURRENT_CALLS = 8;
+
+    /**
+     * Maximum number of inputs classified in one batch selector call, bounding the
+     * size of the structured response.
+     */
+    private static final int MAX_GROUP_SIZE = 50;
+
+    /**
+     * Rough number of characters per token used to estimate the size of an input.
+     */
+    private static final int CHARS_PER_TOKEN = 4;
+
     private final ChatClient chatClient;
 
+    private final LocalRouteClassifier localClassifier;
+
+    private final double confidenceThreshold;
+
+    private final Executor executor;
+
+    private final RoutingDecisionCache decisionCache;
+
     public RoutingWorkflow(ChatClient chatClient) {
+        this(chatClient, null, 1.0);
+    }
+
+    /**
+     * Creates a routing workflow with a local first-stage classifier.
+     *
+     * @param chatClient          the Spring AI chat client used to make LLM calls
+     * @param localClassifier     the local classifier, or {@code null} to always use
+     *                            the LLM selector
+     * @param confidenceThreshold the minimum local confidence, between 0 and 1, at
+     *                            which the LLM selector is skipped
+     */
+    public RoutingWorkflow(ChatClient chatClient, LocalRouteClassifier localClassifier, double confidenceThreshold) {
+        this(chatClient, localClassifier, confidenceThreshold, SHARED_EXECUTOR);
+    }
+
+    /**
+     * Creates a routing workflow with a local first-stage classifier and an
+     * executor for concurrent routed calls.
+     *
+     * @param chatClient          the Spring AI chat client used to make LLM calls
+     * @param localClassifier     the local classifier, or {@code null} to always use
+     *                            the LLM selector
+     * @param confidenceThreshold the minimum local confidence, between 0 and 1, at
+     *                            which the LLM selector is skipped
+     * @param executor            the executor running concurrent routed calls
+     */
+    public RoutingWorkflow(ChatClient chatClient, LocalRouteClassifier localClassifier, double confidenceThreshold,
+            Executor executor) {
+        this(chatClient, localClassifier, confidenceThreshold, executor, null);
+    }
+
+    /**
+     * Creates a routing workflow with a local first-stage classifier, an executor
+     * for concurrent routed calls and a cache of routing decisions.
+     *
+     * @param chatClient          the Spring AI chat client used to make LLM calls
+     * @param localClassifier     the local classifier, or {@code null} to always use
+     *                            the LLM selector
+     * @param confidenceThreshold the minimum local confidence, between 0 and 1, at
+     *                            which the LLM selector is skipped
+     * @param executor            the executor running concurrent routed calls
+     * @param decisionCache       the cache of selector decisions, or {@code null} to
+     *                            call the selector for every unresolved input
+     */
+    public RoutingWorkflow(ChatClient chatClient, LocalRouteClassifier localClassifier, double confidenceThreshold,
+            Executor executor, RoutingDecisionCache decisionCache) {
+        Assert.notNull(chatClient, "ChatClient must not be null");
+        Assert.isTrue(confidenceThreshold >= 0 && confidenceThreshold <= 1,
+                "Confidence threshold must be between 0 and 1");
+        Assert.notNull(executor, "Executor must not be null");
         this.chatClient = chatClient;
+        this.localClassifier = localClassifier;
+        this.confidenceThreshold = confidenceThreshold;
+        this.executor = executor;
+        this.decisionCache = decisionCache;
     }
 
     /**
@@ -115,7 +234,7 @@ public class RoutingWorkflow {
         Assert.notEmpty(routes, "Routes map cannot be null or empty");
 
         // Determine the appropriate route for the input
-        String routeKey = determineRoute(input, routes.keySet());
+        String routeKey = selectRoute(input, routes.keySet());
 
         // Get the selected prompt from the routes map
         String selectedPrompt = routes.get(routeKey);
@@ -125,7 +244,353 @@ public class RoutingWorkflow {
         }
 
         // Process the input with the selected prompt
-        return chatClient.prompt(selectedPrompt + "\nInput: " + input).call().content();
+        return callRoute(selectedPrompt, input);
+    }
+
+    /**
+     * Routes input like {@link #route(String, Map)}, but starts the most likely
+     * routed calls speculatively while the LLM selector is running.
+     *
+     * <p>
+     * The local classifier ranks the routes. If the top route is confident enough,
+     * or the decision is cached, it is called directly without the selector.
+     * Otherwise routes are started in
+     * rank order as long as the expected number of wasted calls, the sum of
+     * {@code 1 - confidence} over the started routes, stays within the extra call
+     * budget. Once the selector has chosen, the matching speculative call is kept
+     * and the others are cancelled by interrupting them. On a miss the selected
+     * route is called after the selection, as in {@link #route(String, Map)}.
+     *
+     * <p>
+     * Cancelled calls may still be billed for the tokens generated before they were
+     * interrupted, so the budget bounds the average extra cost, not the worst case.
+     *
+     * @param input           The input text to be routed and processed
+     * @param routes          Map of route names to their corresponding specialized
+     *                        prompts
+     * @param extraCallBudget the expected number of wasted routed calls per input
+     *                        that may be spent on speculation, 0 to disable it
+     * @return Processed response from the selected specialized route
+     */
+    public String routeSpeculatively(String input, Map<String, String> routes, double extraCallBudget) {
+        Assert.notNull(input, "Input text cannot be null");
+        Assert.notEmpty(routes, "Routes map cannot be null or empty");
+        Assert.isTrue(extraCallBudget >= 0, "Extra call budget must not be negative");
+        Assert.state(localClassifier != null, "Speculative routing requires a local route classifier");
+
+        RoutingResponse knownRoute = knownRoute(input, routes.keySet());
+        if (knownRoute != null) {
+            return callRoute(routes.get(knownRoute.selection()), input);
+        }
+
+        List<LocalRouteClassifier.Classification> ranking = localClassifier.rank(input)
+                .stream()
+                .filter(classification -> routes.containsKey(classification.route()))
+                .toList();
+
+        // Start the most likely routes while the expected waste fits the budget.
+        Map<String, FutureTask<String>> speculativeCalls = new LinkedHashMap<>();
+        double expectedWaste = 0;
+        for (LocalRouteClassifier.Classification classification : ranking) {
+            double waste = 1 - classification.confidence();
+            if (expectedWaste + waste > extraCallBudget) {
+                break;
+            }
+            expectedWaste += waste;
+            String prompt = routes.get(classification.route());
+            FutureTask<String> call = new FutureTask<>(() -> callRoute(prompt, input));
+            executor.execute(call);
+            speculativeCalls.put(classification.route(), call);
+        }
+
+        try {
+            String routeKey = determineRoute(input, routes.keySet());
+            String selectedPrompt = routes.get(routeKey);
+            if (selectedPrompt == null) {
+                throw new IllegalArgumentException("Selected route '" + routeKey + "' not found in routes map");
+            }
+
+            speculativeCalls.forEach((key, call) -> {
+                if (!key.equals(routeKey)) {
+                    call.cancel(true);
+                }
+            });
+
+            FutureTask<String> speculativeCall = speculativeCalls.get(routeKey);
+            return (speculativeCall != null) ? speculativeCall.get() : callRoute(selectedPrompt, input);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the routed call", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new RuntimeException("Failed to process input: " + input, e.getCause());
+        } finally {
+            speculativeCalls.values().forEach(call -> call.cancel(true));
+        }
+    }
+
+    /**
+     * Routes many inputs with the default group size and concurrency.
+     *
+     * @param inputs The input texts to be routed and processed
+     * @param routes Map of route names to their corresponding specialized prompts
+     * @return Processed responses in the same order as the inputs
+     * @see #routeAll(List, Map, int, int)
+     */
+    public List<String> routeAll(List<String> inputs, Map<String, String> routes) {
+        return routeAll(inputs, routes, DEFAULT_MAX_GROUP_TOKENS, DEFAULT_MAX_CONCURRENT_CALLS);
+    }
+
+    /**
+     * Routes many inputs, classifying them in groups instead of one selector call
+     * per input.
+     *
+     * <p>
+     * Inputs the local classifier routes confidently, and inputs with a cached
+     * decision, skip the selector. The other
+     * inputs are split into groups whose estimated tokens stay within
+     * {@code maxGroupTokens}, and each group is classified with one structured
+     * output call, so the list of routes and the instructions are sent once per
+     * group instead of once per input. Inputs of a group whose selector call fails,
+     * e.g. because its response cannot be parsed, inputs missing from a group's
+     * response, and inputs assigned an unknown route are classified individually and
+     * concurrently.
+     * Finally the routed calls of all inputs run concurrently.
+     *
+     * @param inputs             The input texts to be routed and processed
+     * @param routes             Map of route names to their corresponding
+     *                           specialized prompts
+     * @param maxGroupTokens     the maximum estimated input tokens of a batch
+     *                           selector call
+     * @param maxConcurrentCalls the maximum number of concurrent LLM calls
+     * @return Processed responses in the same order as the inputs
+     */
+    public List<String> routeAll(List<String> inputs, Map<String, String> routes, int maxGroupTokens,
+            int maxConcurrentCalls) {
+        Assert.noNullElements(inputs, "Inputs cannot be null or contain null elements");
+        Assert.notEmpty(routes, "Routes map cannot be null or empty");
+        Assert.isTrue(maxGroupTokens > 0, "Max group tokens must be greater than 0");
+        Assert.isTrue(maxConcurrentCalls > 0, "Max concurrent calls must be greater than 0");
+
+        String[] routeKeys = new String[inputs.size()];
+
+        // 1. Route confidently classified and cached inputs without the selector.
+        List<Integer> unresolved = new ArrayList<>();
+        for (int i = 0; i < inputs.size(); i++) {
+            RoutingResponse knownRoute = knownRoute(inputs.get(i), routes.keySet());
+            if (knownRoute != null) {
+                routeKeys[i] = knownRoute.selection();
+            } else {
+                unresolved.add(i);
+            }
+        }
+
+        // 2. Classify the remaining inputs in token-bounded groups.
+        List<List<Integer>> groups = groups(inputs, unresolved, maxGroupTokens);
+        System.out.println(String.format("\nBatch routing %s inputs: %s known, %s selector calls", inputs.size(),
+                inputs.size() - unresolved.size(), groups.size()));
+
+        List<Callable<Map<Integer, String>>> selectorCalls = new ArrayList<>();
+        for (List<Integer> group : groups) {
+            selectorCalls.add(() -> {
+                try {
+                    return determineRoutes(inputs, group, routes.keySet());
+                } catch (RuntimeException e) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw e;
+                    }
+                    // Leave the group's inputs to the individual selector calls below.
+                    System.out.println(String.format("Batch selector call for %s inputs failed: %s", group.size(),
+                            e.getMessage()));
+                    return Map.of();
+                }
+            });
+        }
+        for (Map<Integer, String> selections : invokeAll(selectorCalls, maxConcurrentCalls)) {
+            selections.forEach((index, routeKey) -> {
+                routeKeys[index] = routeKey;
+                if (decisionCache != null && routes.containsKey(routeKey)) {
+                    decisionCache.put(inputs.get(index), routeKey);
+                }
+            });
+        }
+        List<Integer> missing = new ArrayList<>();
+        List<Callable<String>> fallbackCalls = new ArrayList<>();
+        for (int index : unresolved) {
+            if (routeKeys[index] == null || !routes.containsKey(routeKeys[index])) {
+                String input = inputs.get(index);
+                missing.add(index);
+                fallbackCalls.add(() -> determineRoute(input, routes.keySet()));
+            }
+        }
+        List<String> fallbackRoutes = invokeAll(fallbackCalls, maxConcurrentCalls);
+        for (int i = 0; i < missing.size(); i++) {
+            routeKeys[missing.get(i)] = fallbackRoutes.get(i);
+        }
+
+        // 3. Run the routed calls concurrently.
+        List<Callable<String>> routedCalls = new ArrayList<>();
+        for (int i = 0; i < inputs.size(); i++) {
+            String selectedPrompt = routes.get(routeKeys[i]);
+            if (selectedPrompt == null) {
+                throw new IllegalArgumentException("Selected route '" + routeKeys[i] + "' not found in routes map");
+            }
+            String input = inputs.get(i);
+            routedCalls.add(() -> callRoute(selectedPrompt, input));
+        }
+        return invokeAll(routedCalls, maxConcurrentCalls);
+    }
+
+    /**
+     * Splits the given inputs into groups bounded by their estimated tokens.
+     */
+    private static List<List<Integer>> groups(List<String> inputs, List<Integer> indexes, int maxGroupTokens) {
+        List<List<Integer>> groups = new ArrayList<>();
+        List<Integer> group = new ArrayList<>();
+        int groupTokens = 0;
+        for (int index : indexes) {
+            int tokens = inputs.get(index).length() / CHARS_PER_TOKEN + 1;
+            if (!group.isEmpty() && (groupTokens + tokens > maxGroupTokens || group.size() >= MAX_GROUP_SIZE)) {
+                groups.add(group);
+                group = new ArrayList<>();
+                groupTokens = 0;
+            }
+            group.add(index);
+            groupTokens += tokens;
+        }
+        if (!group.isEmpty()) {
+            groups.add(group);
+        }
+        return groups;
+    }
+
+    /**
+     * Classifies a group of inputs with a single structured output call.
+     *
+     * @return the selected route keys by input index
+     */
+    @SuppressWarnings("null")
+    private Map<Integer, String> determineRoutes(List<String> inputs, List<Integer> group,
+            Iterable<String> availableRoutes) {
+
+        StringBuilder groupInputs = new StringBuilder();
+        for (int id = 0; id < group.size(); id++) {
+            groupInputs.append(String.format("%n[%s] %s%n", id + 1, inputs.get(group.get(id))));
+        }
+
+        String selectorPrompt = String.format("""
+                Analyze each of the following inputs and select the most appropriate support team from these options: %s
+                Consider key terms, user intent, and urgency level. Provide one selection per input in this JSON format,
+                where "id" is the integer number of the input shown in brackets:
+
+                \\{
+                    "selections": [
+                        \\{ "id": 1, "selection": "The chosen team name" \\}
+                    ]
+                \\}
+
+                Inputs:
+                %s""", availableRoutes, groupInputs);
+
+        BatchRoutingResponse response = chatClient.prompt(selectorPrompt).call().entity(BatchRoutingResponse.class);
+
+        Map<Integer, String> selections = new HashMap<>();
+        if (response != null && response.selections() != null) {
+            for (BatchRoutingResponse.Selection selection : response.selections()) {
+                if (selection != null && selection.id() >= 1 && selection.id() <= group.size()) {
+                    selections.put(group.get(selection.id() - 1), selection.selection());
+                }
+            }
+        }
+        return selections;
+    }
+
+    /**
+     * Runs the calls concurrently on the executor, at most {@code maxConcurrent} at
+     * a time, and cancels the remaining calls if one fails.
+     *
+     * @return the results in the order of the calls
+     */
+    private <T> List<T> invokeAll(List<Callable<T>> calls, int maxConcurrent) {
+        Semaphore permits = new Semaphore(maxConcurrent);
+        List<FutureTask<T>> tasks = new ArrayList<>();
+        for (Callable<T> call : calls) {
+            FutureTask<T> task = new FutureTask<>(() -> {
+                permits.acquire();
+                try {
+                    return call.call();
+                } finally {
+                    permits.release();
+                }
+            });
+            tasks.add(task);
+            executor.execute(task);
+        }
+
+        try {
+            List<T> results = new ArrayList<>();
+            for (FutureTask<T> task : tasks) {
+                results.add(task.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the routed calls", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new RuntimeException("Failed to process inputs", e.getCause());
+        } finally {
+            tasks.forEach(task -> task.cancel(true));
+        }
+    }
+
+    private String callRoute(String prompt, String input) {
+        return chatClient.prompt(prompt + "\nInput: " + input).call().content();
+    }
+
+    /**
+     * Selects the route without the LLM selector when it is known, and with the LLM
+     * selector otherwise.
+     *
+     * @param input           The input text to analyze for routing
+     * @param availableRoutes The set of available routing options
+     * @return The selected route key
+     */
+    private String selectRoute(String input, Set<String> availableRoutes) {
+        RoutingResponse knownRoute = knownRoute(input, availableRoutes);
+        if (knownRoute == null) {
+            return determineRoute(input, availableRoutes);
+        }
+        System.out.println("\nAvailable routes: " + availableRoutes);
+        System.out.println(String.format("Routing Analysis: %s\nSelected route: %s",
+                knownRoute.reasoning(), knownRoute.selection()));
+        return knownRoute.selection();
+    }
+
+    /**
+     * Resolves the route of an input from the local classifier, when it is confident
+     * enough, or from the decision cache.
+     *
+     * @param input           The input text to analyze for routing
+     * @param availableRoutes The set of available routing options
+     * @return The known route, or {@code null} if the LLM selector must decide
+     */
+    private RoutingResponse knownRoute(String input, Set<String> availableRoutes) {
+        if (localClassifier != null) {
+            LocalRouteClassifier.Classification classification = localClassifier.classify(input);
+            if (classification.confidence() >= confidenceThreshold
+                    && availableRoutes.contains(classification.route())) {
+                return new RoutingResponse(
+                        String.format("local classifier with confidence %.2f", classification.confidence()),
+                        classification.route());
+            }
+        }
+        String cachedRoute = (decisionCache != null) ? decisionCache.get(input, availableRoutes) : null;
+        return (cachedRoute != null) ? new RoutingResponse("cached decision", cachedRoute) : null;
     }
 
     /**
@@ -143,12 +608,15 @@ public class RoutingWorkflow {
      * <li>Select the most appropriate route</li>
      * </ul>
      *
+     * <p>
+     * Valid selections are stored in the decision cache, if any.
+     *
      * @param input           The input text to analyze for routing
      * @param availableRoutes The set of available routing options
      * @return The selected route key based on content analysis
      */
     @SuppressWarnings("null")
-    private String determineRoute(String input, Iterable<String> availableRoutes) {
+    private String determineRoute(String input, Set<String> availableRoutes) {
         System.out.println("\nAvailable routes: " + availableRoutes);
 
         String selectorPrompt = String.format("""
@@ -168,6 +636,9 @@ public class RoutingWorkflow {
         System.out.println(String.format("Routing Analysis:%s\nSelected route: %s",
                 routingResponse.reasoning(), routingResponse.selection()));
 
+        if (decisionCache != null && availableRoutes.contains(routingResponse.selection())) {
+            decisionCache.put(input, routingResponse.selection());
+        }
         return routingResponse.selection();
     }
 }
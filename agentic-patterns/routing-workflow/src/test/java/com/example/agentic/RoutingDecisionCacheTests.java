@@ -0,0 +1,106 @@
+/*
+* Copyright 2024 - 2024 the original author or authors.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+* https://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package com.example.agentic;
+
+import java.time.Duration;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests for {@link RoutingDecisionCache}.
+ *
+ * @author Christian Tzolov
+ */
+class RoutingDecisionCacheTests {
+
+	private static final Set<String> ROUTES = Set.of("billing", "technical", "account");
+
+	private static final String TICKET = "I was charged twice for my subscription this month and I would like a refund "
+			+ "for the duplicate payment as soon as possible please";
+
+	@Test
+	void matchesTheSameNormalizedInput() {
+		RoutingDecisionCache cache = new RoutingDecisionCache(10, Duration.ofMinutes(1), -1);
+		cache.put("Order #1234 hasn't arrived!", "billing");
+
+		assertThat(cache.get("order 98  hasn t arrived", ROUTES)).isEqualTo("billing");
+		assertThat(cache.get("Order 1234 has arrived", ROUTES)).isNull();
+		assertThat(cache.getExactHits()).isEqualTo(1L);
+		assertThat(cache.getMisses()).isEqualTo(1L);
+	}
+
+	@Test
+	void matchesNearDuplicates() {
+		RoutingDecisionCache cache = new RoutingDecisionCache(10, Duration.ofMinutes(1));
+		cache.put(TICKET, "billing");
+
+		String nearDuplicate = TICKET.replace("this month", "last month");
+		assertThat(Long.bitCount(RoutingDecisionCache.simHash(RoutingDecisionCache.normalize(TICKET))
+				^ RoutingDecisionCache.simHash(RoutingDecisionCache.normalize(nearDuplicate)))).isLessThanOrEqualTo(6);
+
+		assertThat(cache.get(nearDuplicate, ROUTES)).isEqualTo("billing");
+		assertThat(cache.get("My password reset link does not work", ROUTES)).isNull();
+		assertThat(cache.getSimilarHits()).isEqualTo(1L);
+		assertThat(cache.getMisses()).isEqualTo(1L);
+	}
+
+	@Test
+	void doesNotMatchNearDuplicatesWhenDisabled() {
+		RoutingDecisionCache cache = new RoutingDecisionCache(10, Duration.ofMinutes(1), -1);
+		cache.put(TICKET, "billing");
+
+		assertThat(cache.get(TICKET.replace("this month", "last month"), ROUTES)).isNull();
+	}
+
+	@Test
+	void ignoresSelectionsOfUnavailableRoutes() {
+		RoutingDecisionCache cache = new RoutingDecisionCache(10, Duration.ofMinutes(1));
+		cache.put(TICKET, "refunds");
+
+		assertThat(cache.get(TICKET, ROUTES)).isNull();
+		assertThat(cache.get(TICKET, Set.of("refunds"))).isEqualTo("refunds");
+	}
+
+	@Test
+	void expiresEntriesAfterTheTimeToLive() throws InterruptedException {
+		RoutingDecisionCache cache = new RoutingDecisionCache(10, Duration.ofMillis(20));
+		cache.put(TICKET, "billing");
+
+		Thread.sleep(50);
+
+		assertThat(cache.get(TICKET, ROUTES)).isNull();
+		assertThat(cache.size()).isZero();
+	}
+
+	@Test
+	void evictsTheLeastRecentlyUsedEntry() {
+		RoutingDecisionCache cache = new RoutingDecisionCache(2, Duration.ofMinutes(1), -1);
+		cache.put("first ticket", "billing");
+		cache.put("second ticket", "technical");
+		assertThat(cache.get("first ticket", ROUTES)).isEqualTo("billing");
+
+		cache.put("third ticket", "account");
+
+		assertThat(cache.size()).isEqualTo(2);
+		assertThat(cache.get("first ticket", ROUTES)).isEqualTo("billing");
+		assertThat(cache.get("second ticket", ROUTES)).isNull();
+		assertThat(cache.get("third ticket", ROUTES)).isEqualTo("account");
+	}
+
+}